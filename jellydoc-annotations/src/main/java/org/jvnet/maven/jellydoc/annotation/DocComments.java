@@ -0,0 +1,78 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc.annotation;
+
+import com.sun.source.doctree.BlockTagTree;
+import com.sun.source.doctree.DocCommentTree;
+import com.sun.source.doctree.DocTree;
+import com.sun.source.doctree.LinkTree;
+import com.sun.source.doctree.LiteralTree;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a doc comment into what goes into the taglib. Shared by the annotation processor and the jellydoc doclet,
+ * so that both produce the same documentation.
+ */
+public final class DocComments {
+    private DocComments() {}
+
+    /**
+     * Renders the main description, with {@code {@link}} replaced by its label, or by its reference if it has none,
+     * and {@code {@code}} and {@code {@literal}} by their contents. Everything else is kept as it is.
+     */
+    public static String body(DocCommentTree comment) {
+        StringBuilder sb = new StringBuilder();
+        for (DocTree tree : comment.getFullBody()) {
+            if (tree instanceof LinkTree) {
+                LinkTree link = (LinkTree) tree;
+                List<? extends DocTree> label = link.getLabel();
+                if (label == null || label.isEmpty()) {
+                    sb.append(link.getReference().toString());
+                } else {
+                    for (DocTree t : label) {
+                        sb.append(t.toString());
+                    }
+                }
+            } else if (tree instanceof LiteralTree) {
+                sb.append(((LiteralTree) tree).getBody().getBody());
+            } else {
+                sb.append(tree.toString());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lists the block tags, such as {@code @since}, by their names without the {@code @}, and their text.
+     * Tags without any text are left out.
+     */
+    public static List<Map.Entry<String, String>> blockTags(DocCommentTree comment) {
+        List<Map.Entry<String, String>> r = new ArrayList<>();
+        for (DocTree tree : comment.getBlockTags()) {
+            if (tree instanceof BlockTagTree) {
+                String name = ((BlockTagTree) tree).getTagName();
+                String text = tree.toString().substring(name.length() + 2);
+                if (!text.isEmpty()) {
+                    r.add(new AbstractMap.SimpleImmutableEntry<>(name, text));
+                }
+            }
+        }
+        return r;
+    }
+}
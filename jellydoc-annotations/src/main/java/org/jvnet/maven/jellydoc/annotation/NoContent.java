@@ -16,7 +16,7 @@
 package org.jvnet.maven.jellydoc.annotation;
 
 import static java.lang.annotation.ElementType.TYPE;
-import static java.lang.annotation.RetentionPolicy.SOURCE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
 
 import java.lang.annotation.Documented;
 import java.lang.annotation.Inherited;
@@ -30,7 +30,7 @@ import java.lang.annotation.Target;
  * @author Kohsuke Kawaguchi
  */
 @Documented
-@Retention(SOURCE)
+@Retention(CLASS)
 @Target(TYPE)
 @Inherited
 public @interface NoContent {}
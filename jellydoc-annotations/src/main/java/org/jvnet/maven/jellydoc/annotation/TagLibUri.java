@@ -16,7 +16,7 @@
 package org.jvnet.maven.jellydoc.annotation;
 
 import static java.lang.annotation.ElementType.PACKAGE;
-import static java.lang.annotation.RetentionPolicy.SOURCE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
 
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
@@ -28,7 +28,7 @@ import java.lang.annotation.Target;
  * @author Kohsuke Kawaguchi
  */
 @Documented
-@Retention(SOURCE)
+@Retention(CLASS)
 @Target(PACKAGE)
 public @interface TagLibUri {
     String value();
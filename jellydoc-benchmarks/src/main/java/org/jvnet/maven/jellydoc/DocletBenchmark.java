@@ -0,0 +1,97 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.output.StreamSerializer;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.QName;
+import org.cyberneko.html.parsers.SAXParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parsing doc comments in {@link TagXMLDoclet}, and writing them out as {@code <doc>} elements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DocletBenchmark {
+    @Param({"1000"})
+    public int comments;
+
+    private List<String> texts;
+    private TagXMLDoclet doclet;
+
+    @Setup
+    public void setUp() {
+        texts = SyntheticTaglib.comments(comments, 42);
+        doclet = new TagXMLDoclet();
+    }
+
+    /**
+     * What the doclet used to do: a new nekohtml parser for every comment.
+     */
+    @Benchmark
+    public void freshParser(Blackhole bh) throws Exception {
+        for (String text : texts) {
+            SAXParser parser = new SAXParser();
+            parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
+            parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "lower");
+            parser.setContentHandler(new DefaultHandler());
+            parser.parse(new InputSource(new StringReader(text)));
+            bh.consume(parser);
+        }
+    }
+
+    @Benchmark
+    public void parseHTML(Blackhole bh) throws Exception {
+        for (String text : texts) {
+            bh.consume(doclet.parseHTML(text));
+        }
+    }
+
+    /**
+     * Parsing and then writing the {@code <doc>} elements, which is what {@code docXML} does
+     * once javadoc has handed over the text.
+     */
+    @Benchmark
+    public void docXML() throws Exception {
+        Tag tag = TXW.create(new QName("tag"), Tag.class, new StreamSerializer(OutputStream.nullOutputStream()));
+        for (String text : texts) {
+            doclet.parseHTML(text).write(tag.attribute());
+        }
+        tag.commit();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rendering the report with {@link ReferenceRenderer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReferenceRendererBenchmark {
+    @Param({"10"})
+    public int libraries;
+
+    @Param({"100"})
+    public int tags;
+
+    @Param({"10"})
+    public int attributes;
+
+    private File dir;
+    private List<File> fragments;
+    private List<Element> docs;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("jellydoc-bench").toFile();
+        fragments = new SyntheticTaglib(libraries, tags, attributes).writeFragments(dir);
+        docs = new SAXReader().read(fragments.get(0)).getRootElement().elements("tag");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticTaglib.delete(dir);
+    }
+
+    /**
+     * The whole report, in the single page mode.
+     */
+    @Benchmark
+    public void renderBody() throws IOException {
+        new ReferenceRenderer(SyntheticTaglib.nullSink(), fragments).render();
+    }
+
+    /**
+     * Converting the docs of one library, with a fresh cache each time, so every doc is actually converted.
+     */
+    @Benchmark
+    public void docXml(Blackhole bh) throws IOException {
+        ReferenceRenderer renderer = new ReferenceRenderer(SyntheticTaglib.nullSink(), List.of());
+        for (Element tag : docs) {
+            bh.consume(renderer.docXml(tag));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates Maven projects with a given number of Jelly tags, runs the {@code jellydoc} goal on them,
+ * and reports how the time, the memory and the outputs grow with the number of tags.
+ *
+ * <p>
+ * The plugin needs to be installed first. Then, for example:
+ * <pre>
+ * java -cp target/benchmarks.jar org.jvnet.maven.jellydoc.ScalingHarness \
+ *      -pluginVersion 999999-SNAPSHOT -tags 100,1000,10000 -depth 3 -sentences 5
+ * </pre>
+ *
+ * <p>
+ * The generated projects come with a minimal {@code org.apache.commons.jelly.TagSupport} of their own,
+ * so that they build without any dependency. Peak heaps are what the plugin writes to
+ * {@code target/jellydoc-metrics.json}; run with {@code -fork} to see the javadoc process on its own.
+ */
+public class ScalingHarness {
+    private File workDir = new File("target/scaling");
+    private String mvn = System.getProperty("os.name").startsWith("Windows") ? "mvn.cmd" : "mvn";
+    private String pluginVersion;
+    private List<Integer> tagCounts = List.of(100, 1000, 10000);
+    private int tagsPerPackage = 50;
+    private int attributesPerTag = 5;
+    private int depth = 1;
+    private int sentences = 3;
+    private boolean fork;
+
+    public static void main(String[] args) throws Exception {
+        ScalingHarness h = new ScalingHarness();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-workDir":
+                    h.workDir = new File(args[++i]);
+                    break;
+                case "-mvn":
+                    h.mvn = args[++i];
+                    break;
+                case "-pluginVersion":
+                    h.pluginVersion = args[++i];
+                    break;
+                case "-tags":
+                    h.tagCounts = new ArrayList<>();
+                    for (String n : args[++i].split(",")) {
+                        h.tagCounts.add(Integer.parseInt(n.trim()));
+                    }
+                    break;
+                case "-tagsPerPackage":
+                    h.tagsPerPackage = Integer.parseInt(args[++i]);
+                    break;
+                case "-attributes":
+                    h.attributesPerTag = Integer.parseInt(args[++i]);
+                    break;
+                case "-depth":
+                    h.depth = Integer.parseInt(args[++i]);
+                    break;
+                case "-sentences":
+                    h.sentences = Integer.parseInt(args[++i]);
+                    break;
+                case "-fork":
+                    h.fork = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (h.pluginVersion == null) {
+            throw new IllegalArgumentException("-pluginVersion is required");
+        }
+        h.run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        System.out.printf(
+                "%8s %9s %10s %12s %12s %12s %12s %12s%n",
+                "tags", "packages", "time (ms)", "maven (MB)", "javadoc (MB)", "taglib.xml", "schemas", "taglib.bin");
+        for (int tags : tagCounts) {
+            File project = new File(workDir, "tags-" + tags);
+            generate(project, tags);
+            long start = System.nanoTime();
+            runMaven(project);
+            long millis = (System.nanoTime() - start) / 1000000;
+
+            File target = new File(project, "target");
+            String metrics = new String(
+                    Files.readAllBytes(new File(target, "jellydoc-metrics.json").toPath()), StandardCharsets.UTF_8);
+            long schemas = 0;
+            File[] xsds = target.listFiles((d, n) -> n.startsWith("taglib-") && n.endsWith(".xsd"));
+            for (File xsd : xsds != null ? xsds : new File[0]) {
+                schemas += xsd.length();
+            }
+            long mavenHeap = number(metrics, "peakHeapBytes");
+            long javadocHeap = number(metrics, "docletPeakHeapBytes");
+            System.out.printf(
+                    Locale.ROOT,
+                    "%8d %9d %10d %12d %12d %12d %12d %12d%n",
+                    tags,
+                    packages(tags),
+                    millis,
+                    mavenHeap / (1024 * 1024),
+                    javadocHeap / (1024 * 1024),
+                    new File(target, "taglib.xml").length(),
+                    schemas,
+                    new File(target, "taglib.bin").length());
+        }
+    }
+
+    private static long number(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\": (\\d+)").matcher(json);
+        return m.find() ? Long.parseLong(m.group(1)) : -1;
+    }
+
+    private int packages(int tags) {
+        return (tags + tagsPerPackage - 1) / tagsPerPackage;
+    }
+
+    private void runMaven(File project) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(Arrays.asList(
+                mvn,
+                "-B",
+                "-q",
+                "io.jenkins.tools.maven:jellydoc-maven-plugin:" + pluginVersion + ":jellydoc",
+                "-Djellydoc.incremental=false",
+                "-Djellydoc.fork=" + fork));
+        Process p = new ProcessBuilder(cmd).directory(project).inheritIO().start();
+        if (p.waitFor() != 0) {
+            throw new IOException("Maven failed in " + project);
+        }
+    }
+
+    /**
+     * Generates a project with the given number of tags.
+     */
+    void generate(File project, int tags) throws IOException {
+        if (project.exists()) {
+            SyntheticTaglib.delete(project);
+        }
+        File src = new File(project, "src/main/java");
+        write(new File(project, "pom.xml"), pom());
+        write(
+                new File(src, "org/apache/commons/jelly/TagSupport.java"),
+                "package org.apache.commons.jelly;\n\n"
+                        + "public abstract class TagSupport implements Tag {\n"
+                        + "    public void setTrim(boolean trim) {}\n"
+                        + "}\n");
+        write(
+                new File(src, "org/apache/commons/jelly/Tag.java"),
+                "package org.apache.commons.jelly;\n\npublic interface Tag {}\n");
+
+        List<String> comments = SyntheticTaglib.comments(tags * (attributesPerTag + 1) + depth, 42);
+        int c = 0;
+        for (int pkg = 0; pkg < packages(tags); pkg++) {
+            String name = "org.example.jelly.lib" + pkg;
+            File dir = new File(src, name.replace('.', '/'));
+            write(
+                    new File(dir, "package-info.java"),
+                    "/**\n * " + comments.get(c++ % comments.size()) + "\n */\npackage " + name + ";\n");
+
+            // the chain of abstract base classes, the last of which the tags extend
+            String base = "org.apache.commons.jelly.TagSupport";
+            for (int d = 0; d < depth - 1; d++) {
+                StringBuilder sb = new StringBuilder("package " + name + ";\n\n");
+                sb.append(javadoc(comments, c++)).append("public abstract class Base").append(d);
+                sb.append(" extends ").append(base).append(" {\n");
+                sb.append(setter("inherited" + d, javadoc(comments, c++)));
+                sb.append("}\n");
+                write(new File(dir, "Base" + d + ".java"), sb.toString());
+                base = "Base" + d;
+            }
+
+            int first = pkg * tagsPerPackage;
+            for (int t = first; t < Math.min(tags, first + tagsPerPackage); t++) {
+                StringBuilder sb = new StringBuilder("package " + name + ";\n\n");
+                sb.append(javadoc(comments, c++)).append("public class Sample").append(t).append("Tag");
+                sb.append(" extends ").append(base).append(" {\n");
+                for (int a = 0; a < attributesPerTag; a++) {
+                    sb.append(setter("attribute" + a, javadoc(comments, c++)));
+                }
+                sb.append("}\n");
+                write(new File(dir, "Sample" + t + "Tag.java"), sb.toString());
+            }
+        }
+    }
+
+    /**
+     * Makes a doc comment of about {@link #sentences} sentences, as the generated comments have two on average.
+     */
+    private String javadoc(List<String> comments, int index) {
+        StringBuilder sb = new StringBuilder("/**\n");
+        for (int i = 0; i < Math.max(1, sentences / 2); i++) {
+            sb.append(" * ").append(comments.get((index + i) % comments.size())).append('\n');
+        }
+        return sb.append(" */\n").toString();
+    }
+
+    private static String setter(String property, String javadoc) {
+        String name = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        return javadoc.replaceAll("(?m)^", "    ") + "    public void set" + name + "(String value) {}\n\n";
+    }
+
+    private static String pom() {
+        return "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+                + "  <modelVersion>4.0.0</modelVersion>\n"
+                + "  <groupId>org.example</groupId>\n"
+                + "  <artifactId>jellydoc-scaling</artifactId>\n"
+                + "  <version>1.0</version>\n"
+                + "  <properties>\n"
+                + "    <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>\n"
+                + "  </properties>\n"
+                + "</project>\n";
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating the schema of one library, which is what {@code JellydocMojo.generateSchema} does for each of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SchemaBenchmark {
+    @Param({"100"})
+    public int tags;
+
+    @Param({"10"})
+    public int attributes;
+
+    private File dir;
+    private File library;
+    private Templates templates;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("jellydoc-bench").toFile();
+        library = new SyntheticTaglib(1, tags, attributes).writeFragments(dir).get(0);
+        templates = TransformerFactory.newInstance()
+                .newTemplates(new StreamSource(
+                        JellydocMojo.class.getResource("xsdgen.xsl").toExternalForm()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticTaglib.delete(dir);
+    }
+
+    @Benchmark
+    public void generateSchema() throws Exception {
+        templates.newTransformer()
+                .transform(new StreamSource(library), new StreamResult(OutputStream.nullOutputStream()));
+    }
+}
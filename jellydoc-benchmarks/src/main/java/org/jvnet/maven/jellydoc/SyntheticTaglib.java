@@ -0,0 +1,181 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.output.StreamSerializer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import javax.xml.namespace.QName;
+import org.apache.maven.doxia.sink.Sink;
+
+/**
+ * Generates tag libraries of a given size, with doc comments that look like the ones in Jenkins and Jelly.
+ * The output is the same for the same parameters, so that runs can be compared.
+ */
+public final class SyntheticTaglib {
+    private static final String[] SENTENCES = {
+        "Sets the name of the variable to export the result to.",
+        "If true, the body is evaluated only once.",
+        "The XPath expression to evaluate against the current context.",
+        "Whether to trim the whitespace around the body of this tag.",
+        "This attribute is ignored when the tag has no body.",
+        "Defaults to the value inherited from the enclosing tag.",
+    };
+
+    private static final String[] MARKUP = {
+        "<p>Defaults to <code>false</code>.</p>",
+        "<ul><li>absolute paths</li><li>relative paths</li></ul>",
+        "See <a href=\"http://commons.apache.org/jelly/\">Jelly</a> for details &amp; examples.",
+        "<p>For example, <tt>&lt;j:set var=\"x\" value=\"${y}\"/&gt;</tt>.</p>",
+    };
+
+    private final int libraries;
+    private final int tagsPerLibrary;
+    private final int attributesPerTag;
+
+    public SyntheticTaglib(int libraries, int tagsPerLibrary, int attributesPerTag) {
+        this.libraries = libraries;
+        this.tagsPerLibrary = tagsPerLibrary;
+        this.attributesPerTag = attributesPerTag;
+    }
+
+    /**
+     * Generates doc comments, about a third of which have no markup at all, like most setter docs.
+     */
+    public static List<String> comments(int count, long seed) {
+        Random r = new Random(seed);
+        List<String> comments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            comments.add(comment(r));
+        }
+        return comments;
+    }
+
+    private static String comment(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int sentences = 1 + r.nextInt(3);
+        for (int i = 0; i < sentences; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(SENTENCES[r.nextInt(SENTENCES.length)]);
+        }
+        if (r.nextInt(3) != 0) {
+            sb.append(' ').append(MARKUP[r.nextInt(MARKUP.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the whole taglib as one {@code taglib.xml}.
+     */
+    public void writeTaglib(OutputStream out) {
+        Random r = new Random(42);
+        Tags tags = TXW.create(Tags.class, new StreamSerializer(out));
+        for (int i = 0; i < libraries; i++) {
+            writeLibrary(tags.library(), i, r);
+        }
+        tags.commit();
+    }
+
+    /**
+     * Writes one {@code <library>} file per library into the given directory, like the plugin keeps
+     * in {@code target/jellydoc-fragments}.
+     */
+    public List<File> writeFragments(File dir) throws IOException {
+        dir.mkdirs();
+        Random r = new Random(42);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < libraries; i++) {
+            File f = new File(dir, packageName(i) + ".xml");
+            try (OutputStream out = new FileOutputStream(f)) {
+                Library library = TXW.create(new QName("library"), Library.class, new StreamSerializer(out));
+                writeLibrary(library, i, r);
+                library.commit();
+            }
+            files.add(f);
+        }
+        return files;
+    }
+
+    private void writeLibrary(Library library, int index, Random r) {
+        String prefix = "lib" + index;
+        library.name(packageName(index));
+        library.prefix(prefix);
+        library.uri("jelly:" + prefix);
+        library.doc(comment(r));
+        for (int t = 0; t < tagsPerLibrary; t++) {
+            Tag tag = library.tag();
+            tag.name("tag" + t);
+            tag.className("Tag" + t + "Tag");
+            if (t % 5 == 0) {
+                tag.noContent(true);
+            }
+            tag.doc(comment(r));
+            for (int a = 0; a < attributesPerTag; a++) {
+                Attribute att = tag.attribute();
+                att.name("attribute" + a);
+                att.type(a % 2 == 0 ? "java.lang.String" : "org.apache.commons.jelly.expression.Expression");
+                if (a == 0) {
+                    att.use("required");
+                }
+                att.doc(comment(r));
+            }
+        }
+    }
+
+    private static String packageName(int index) {
+        return "org.example.jelly.lib" + index;
+    }
+
+    /**
+     * Deletes what {@link #writeFragments(File)} wrote.
+     */
+    public static void delete(File dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /**
+     * A sink that throws everything away, so that only the rendering itself is measured.
+     */
+    public static Sink nullSink() {
+        return (Sink) Proxy.newProxyInstance(Sink.class.getClassLoader(), new Class<?>[] {Sink.class}, (p, m, a) -> {
+            Class<?> t = m.getReturnType();
+            if (t == boolean.class) {
+                return false;
+            }
+            if (t.isPrimitive() && t != void.class) {
+                return 0;
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Fingerprints of everything a jellydoc run depends on: the source files, the compile classpath
+ * and the plugin version.
+ *
+ * <p>
+ * The state of the last successful run is persisted in {@code target/jellydoc-state.properties},
+ * so that {@link JellydocMojo} can tell when nothing relevant has changed and skip javadoc altogether.
+ */
+final class BuildState {
+    static final String FILE_NAME = "jellydoc-state.properties";
+
+    private static final String PLUGIN_VERSION = "plugin.version";
+    private static final String SOURCE = "source.";
+    private static final String ARTIFACT = "artifact.";
+    private static final String MODE = "mode";
+
+    /**
+     * Sorted, so that the persisted form is stable and two states can be compared entry by entry.
+     */
+    private final Map<String, String> entries = new TreeMap<>();
+
+    /**
+     * {@link #stamp(List, Collection)} of the inputs this state was computed from, or null if it was loaded.
+     * Not persisted, and not part of {@link #equals(Object)}.
+     */
+    private String stamp;
+
+    private BuildState() {}
+
+    /**
+     * Fingerprints the current inputs.
+     *
+     * @param sourceRoots existing source directories; every file underneath is an input,
+     *                    including {@code package.html} and the like.
+     */
+    static BuildState compute(List<File> sourceRoots, Collection<Artifact> artifacts, String pluginVersion)
+            throws IOException {
+        BuildState s = new BuildState();
+        s.entries.put(PLUGIN_VERSION, String.valueOf(pluginVersion));
+        for (File root : sourceRoots) {
+            for (File f : listFiles(root)) {
+                s.entries.put(SOURCE + f.getAbsolutePath(), digest(f));
+            }
+        }
+        for (Artifact a : artifacts) {
+            s.entries.put(ARTIFACT + a.getId(), fingerprint(a.getFile()));
+        }
+        s.stamp = stamp(sourceRoots, artifacts);
+        return s;
+    }
+
+    /**
+     * Fingerprints the inputs by their sizes and timestamps alone, which is much cheaper than {@link #compute}
+     * as no source is read, and good enough to tell if anything changed in the same build.
+     */
+    static String stamp(List<File> sourceRoots, Collection<Artifact> artifacts) throws IOException {
+        MessageDigest md = newDigest();
+        for (File root : sourceRoots) {
+            for (File f : listFiles(root)) {
+                String entry = f.getAbsolutePath() + ':' + f.length() + ':' + f.lastModified() + '\n';
+                md.update(entry.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        for (Artifact a : artifacts) {
+            md.update((a.getId() + ':' + fingerprint(a.getFile()) + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(md.digest());
+    }
+
+    String stamp() {
+        return stamp;
+    }
+
+    /**
+     * Marks the outputs as generated in a mode other than the default one, so that they are
+     * never mistaken for the outputs of another mode.
+     */
+    BuildState withMode(String mode) {
+        entries.put(MODE, mode);
+        return this;
+    }
+
+    /**
+     * Digests the inputs in a way that doesn't depend on where the project is checked out, as a key of
+     * {@link OutputCache}. Released artifacts are identified by their coordinates alone, as they never change,
+     * while snapshots and the directories of other modules in the reactor are identified by their contents.
+     */
+    String portableDigest(File basedir, Collection<Artifact> artifacts) throws IOException {
+        MessageDigest md = newDigest();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            String key = e.getKey();
+            if (key.startsWith(ARTIFACT)) {
+                continue;
+            }
+            if (key.startsWith(SOURCE)) {
+                key = SOURCE + relativePath(basedir, new File(key.substring(SOURCE.length())));
+            }
+            md.update((key + '=' + e.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> portable = new TreeMap<>();
+        for (Artifact a : artifacts) {
+            File f = a.getFile();
+            String fingerprint = "";
+            if (f != null && f.isDirectory()) {
+                MessageDigest dir = newDigest();
+                for (File child : listFiles(f)) {
+                    dir.update((relativePath(f, child) + '=' + digest(child) + '\n').getBytes(StandardCharsets.UTF_8));
+                }
+                fingerprint = toHex(dir.digest());
+            } else if (f != null && a.isSnapshot()) {
+                fingerprint = digest(f);
+            }
+            portable.put(ARTIFACT + a.getId(), fingerprint);
+        }
+        for (Map.Entry<String, String> e : portable.entrySet()) {
+            md.update((e.getKey() + '=' + e.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(md.digest());
+    }
+
+    private static String relativePath(File base, File f) {
+        return base.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Loads the state persisted by an earlier run.
+     *
+     * @return null if there's no such state or it can't be read.
+     */
+    static BuildState load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        BuildState s = new BuildState();
+        for (String key : props.stringPropertyNames()) {
+            s.entries.put(key, props.getProperty(key));
+        }
+        return s;
+    }
+
+    void save(File file) throws IOException {
+        Properties props = new Properties();
+        props.putAll(entries);
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "jellydoc build state");
+        }
+    }
+
+    /**
+     * Checks if the given earlier state was computed against the same classpath and the same plugin,
+     * in which case the outputs of unchanged sources are still good.
+     */
+    boolean hasSameEnvironment(BuildState previous) {
+        return environment().equals(previous.environment());
+    }
+
+    private Map<String, String> environment() {
+        Map<String, String> r = new TreeMap<>(entries);
+        r.keySet().removeIf(k -> k.startsWith(SOURCE));
+        return r;
+    }
+
+    /**
+     * Lists the source files that were added, removed or modified since the given earlier state.
+     *
+     * @return absolute paths of the files.
+     */
+    Set<String> changedSources(BuildState previous) {
+        Set<String> r = new TreeSet<>();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            if (e.getKey().startsWith(SOURCE) && !e.getValue().equals(previous.entries.get(e.getKey()))) {
+                r.add(e.getKey().substring(SOURCE.length()));
+            }
+        }
+        for (String k : previous.entries.keySet()) {
+            if (k.startsWith(SOURCE) && !entries.containsKey(k)) {
+                r.add(k.substring(SOURCE.length()));
+            }
+        }
+        return r;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BuildState && entries.equals(((BuildState) o).entries);
+    }
+
+    @Override
+    public int hashCode() {
+        return entries.hashCode();
+    }
+
+    /**
+     * Lists all the files under the given directory, in a stable order.
+     */
+    static List<File> listFiles(File dir) {
+        List<File> r = new ArrayList<>();
+        collect(dir, r);
+        return r;
+    }
+
+    private static void collect(File dir, List<File> r) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children, Comparator.comparing(File::getName));
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, r);
+            } else {
+                r.add(child);
+            }
+        }
+    }
+
+    /**
+     * Classpath entries are jars that rarely change in place, so the size and the timestamp are good enough,
+     * and much cheaper than hashing 100+ jars on every build. Directories (such as {@code target/classes}
+     * of another module in the reactor) are fingerprinted by their contents.
+     */
+    private static String fingerprint(File f) throws IOException {
+        if (f == null) {
+            return "-";
+        }
+        if (!f.isDirectory()) {
+            return f.length() + ":" + f.lastModified();
+        }
+        MessageDigest md = newDigest();
+        for (File child : listFiles(f)) {
+            String entry = child.getAbsolutePath() + ':' + child.length() + ':' + child.lastModified() + '\n';
+            md.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of the contents of the given file.
+     */
+    static String digest(File f) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[8192];
+        try (InputStream in = new FileInputStream(f)) {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                md.update(buf, 0, len);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JRE is required to support SHA-256
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
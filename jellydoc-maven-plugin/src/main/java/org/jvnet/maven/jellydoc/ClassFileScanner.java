@@ -0,0 +1,590 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Finds Jelly tags by reading class files directly, without loading any of them.
+ *
+ * <p>
+ * Only the type hierarchy, the methods, the annotations and the classes referred to are read from a class file,
+ * the code is skipped. Supertypes are looked up in the given classpath, directories and jars alike,
+ * and then in the JDK.
+ */
+final class ClassFileScanner implements Closeable {
+    static final String TAG_CLASS = "org/apache/commons/jelly/Tag";
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_BRIDGE = 0x0040;
+    static final int ACC_ABSTRACT = 0x0400;
+    static final int ACC_SYNTHETIC = 0x1000;
+
+    private final List<File> classpath;
+
+    private final Map<File, JarFile> jars = new HashMap<>();
+
+    /**
+     * Classes looked up so far, or empty if they aren't in the classpath.
+     */
+    private final Map<String, Optional<ClassInfo>> classes = new HashMap<>();
+
+    /**
+     * Memoizes {@link #isTag(String)}.
+     */
+    private final Map<String, Optional<Boolean>> tagTypes = new HashMap<>();
+
+    /**
+     * Memoizes {@link #locate(String)}.
+     */
+    private final Map<String, Optional<File>> locations = new HashMap<>();
+
+    /**
+     * Packages of every jar in the classpath, in their internal form, listed on demand.
+     */
+    private final Map<File, Set<String>> jarPackages = new HashMap<>();
+
+    ClassFileScanner(List<File> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * What a class file says about a class. Class names are in their internal form, as in
+     * {@code java/lang/Object}.
+     */
+    static final class ClassInfo {
+        final int access;
+        final String name;
+        /**
+         * Null for {@code java.lang.Object}.
+         */
+        final String superName;
+
+        final List<String> interfaces;
+
+        /**
+         * In the order they appear in the class file, which is the order of the source.
+         */
+        final List<MethodInfo> methods = new ArrayList<>();
+
+        /**
+         * Annotations of the class, in source or class retention alike, keyed by their type descriptor.
+         */
+        final Map<String, Map<String, String>> annotations = new HashMap<>();
+
+        /**
+         * Every class the class file refers to, in its code, signatures and annotations alike.
+         * Classes only used as compile-time constants or source-retention annotations are missing.
+         */
+        final Set<String> references = new HashSet<>();
+
+        ClassInfo(int access, String name, String superName, List<String> interfaces) {
+            this.access = access;
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+        }
+    }
+
+    static final class MethodInfo {
+        final int access;
+        final String name;
+        final String descriptor;
+        /**
+         * Generic signature, or null if the method doesn't involve generics.
+         */
+        String signature;
+
+        final Map<String, Map<String, String>> annotations = new HashMap<>();
+
+        MethodInfo(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    /**
+     * Reads a class file.
+     */
+    static ClassInfo read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor version
+        data.readUnsignedShort(); // major version
+
+        int count = data.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8, whose encoding is what DataInput calls modified UTF-8
+                    utf8[i] = data.readUTF();
+                    break;
+                case 7: // Class
+                    classNames[i] = data.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    data.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    data.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    data.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    data.skipBytes(8);
+                    i++; // takes up two entries
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        int access = data.readUnsignedShort();
+        String name = utf8[classNames[data.readUnsignedShort()]];
+        int superClass = data.readUnsignedShort();
+        String superName = superClass == 0 ? null : utf8[classNames[superClass]];
+        int interfaceCount = data.readUnsignedShort();
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(utf8[classNames[data.readUnsignedShort()]]);
+        }
+        ClassInfo r = new ClassInfo(access, name, superName, interfaces);
+        for (int i = 1; i < count; i++) {
+            if (classNames[i] != 0) {
+                String c = utf8[classNames[i]];
+                if (c.startsWith("[")) {
+                    referencesIn(c, r.references);
+                } else {
+                    r.references.add(c);
+                }
+            }
+        }
+
+        int fieldCount = data.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            data.skipBytes(4); // access and name
+            referencesIn(utf8[data.readUnsignedShort()], r.references);
+            referencesIn(readAttributes(data, utf8, new HashMap<>(), r.references), r.references);
+        }
+        int methodCount = data.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            MethodInfo m = new MethodInfo(
+                    data.readUnsignedShort(), utf8[data.readUnsignedShort()], utf8[data.readUnsignedShort()]);
+            m.signature = readAttributes(data, utf8, m.annotations, r.references);
+            referencesIn(m.descriptor, r.references);
+            referencesIn(m.signature, r.references);
+            r.methods.add(m);
+        }
+        referencesIn(readAttributes(data, utf8, r.annotations, r.references), r.references);
+        return r;
+    }
+
+    /**
+     * Adds the classes that appear in the given descriptor or generic signature.
+     */
+    static void referencesIn(String signature, Set<String> references) {
+        if (signature != null) {
+            new SignatureReader(signature, references).read();
+        }
+    }
+
+    /**
+     * Goes through a descriptor or a generic signature of a class, a method or a field,
+     * picking the class names.
+     */
+    private static final class SignatureReader {
+        private final String s;
+        private final Set<String> references;
+        private int pos;
+
+        SignatureReader(String s, Set<String> references) {
+            this.s = s;
+            this.references = references;
+        }
+
+        void read() {
+            if (s.charAt(pos) == '<') {
+                typeParameters();
+            }
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '(' || c == ')' || c == '^') {
+                    pos++;
+                } else {
+                    type();
+                }
+            }
+        }
+
+        private void typeParameters() {
+            pos++; // '<'
+            while (s.charAt(pos) != '>') {
+                pos = s.indexOf(':', pos); // past the name
+                while (s.charAt(pos) == ':') {
+                    pos++;
+                    if (s.charAt(pos) != ':') { // the class bound may be empty
+                        type();
+                    }
+                }
+            }
+            pos++;
+        }
+
+        private void type() {
+            char c = s.charAt(pos++);
+            if (c == '[') {
+                type();
+            } else if (c == 'T') {
+                pos = s.indexOf(';', pos) + 1;
+            } else if (c == 'L') {
+                classType();
+            }
+            // otherwise a primitive type, or void
+        }
+
+        private void classType() {
+            int start = pos;
+            while (true) {
+                char c = s.charAt(pos);
+                if (c == ';' || c == '<' || c == '.') {
+                    break;
+                }
+                pos++;
+            }
+            references.add(s.substring(start, pos));
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == ';') {
+                    return;
+                }
+                if (c == '<') {
+                    while (s.charAt(pos) != '>') {
+                        char a = s.charAt(pos);
+                        if (a == '*') {
+                            pos++;
+                        } else {
+                            if (a == '+' || a == '-') {
+                                pos++;
+                            }
+                            type();
+                        }
+                    }
+                    pos++;
+                }
+                // '.' starts an inner class, which is in the same place as its outer class
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of a class, field or method, keeping only its annotations.
+     *
+     * @param annotations where to put the annotations.
+     * @param references where to put the classes the annotations refer to.
+     * @return the generic signature, if any.
+     */
+    private static String readAttributes(
+            DataInputStream data,
+            String[] utf8,
+            Map<String, Map<String, String>> annotations,
+            Set<String> references)
+            throws IOException {
+        String signature = null;
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = utf8[data.readUnsignedShort()];
+            int length = data.readInt();
+            if (name.equals("RuntimeVisibleAnnotations") || name.equals("RuntimeInvisibleAnnotations")) {
+                int n = data.readUnsignedShort();
+                for (int j = 0; j < n; j++) {
+                    String type = utf8[data.readUnsignedShort()];
+                    referencesIn(type, references);
+                    annotations.put(type, readAnnotationValues(data, utf8, references));
+                }
+            } else if (name.equals("Signature")) {
+                signature = utf8[data.readUnsignedShort()];
+            } else {
+                data.skipBytes(length);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Reads the element/value pairs of an annotation. Only string values are kept, as that's all
+     * the jellydoc annotations have, and enum values by the name of their constant.
+     */
+    private static Map<String, String> readAnnotationValues(
+            DataInputStream data, String[] utf8, Set<String> references) throws IOException {
+        Map<String, String> r = new HashMap<>();
+        int n = data.readUnsignedShort();
+        for (int i = 0; i < n; i++) {
+            String name = utf8[data.readUnsignedShort()];
+            String value = readElementValue(data, utf8, references);
+            if (value != null) {
+                r.put(name, value);
+            }
+        }
+        return r;
+    }
+
+    private static String readElementValue(DataInputStream data, String[] utf8, Set<String> references)
+            throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 's':
+                return utf8[data.readUnsignedShort()];
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+                data.skipBytes(2);
+                return null;
+            case 'c':
+                referencesIn(utf8[data.readUnsignedShort()], references);
+                return null;
+            case 'e':
+                referencesIn(utf8[data.readUnsignedShort()], references);
+                return utf8[data.readUnsignedShort()];
+            case '@':
+                referencesIn(utf8[data.readUnsignedShort()], references);
+                readAnnotationValues(data, utf8, references);
+                return null;
+            case '[':
+                int n = data.readUnsignedShort();
+                for (int i = 0; i < n; i++) {
+                    readElementValue(data, utf8, references);
+                }
+                return null;
+            default:
+                throw new IOException("Unknown element value tag " + (char) tag);
+        }
+    }
+
+    /**
+     * Looks up a class in the classpath.
+     *
+     * @return null if it isn't there.
+     */
+    ClassInfo find(String name) throws IOException {
+        Optional<ClassInfo> r = classes.get(name);
+        if (r == null) {
+            r = Optional.ofNullable(load(name + ".class"));
+            classes.put(name, r);
+        }
+        return r.orElse(null);
+    }
+
+    private ClassInfo load(String path) throws IOException {
+        for (File e : classpath) {
+            if (e.isDirectory()) {
+                File f = new File(e, path);
+                if (f.isFile()) {
+                    try (InputStream in = new FileInputStream(f)) {
+                        return read(in);
+                    }
+                }
+            } else if (e.isFile()) {
+                JarFile jar = jar(e);
+                ZipEntry entry = jar.getEntry(path);
+                if (entry != null) {
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        return read(in);
+                    }
+                }
+            }
+        }
+        // the JDK, through the class loader that can see all of it but nothing else
+        try (InputStream in = ClassLoader.getPlatformClassLoader().getResourceAsStream(path)) {
+            return in == null ? null : read(in);
+        }
+    }
+
+    /**
+     * Finds the classpath entry that has the given class.
+     *
+     * @return null if it isn't in the classpath, as for JDK classes.
+     */
+    File locate(String name) throws IOException {
+        Optional<File> r = locations.get(name);
+        if (r == null) {
+            String path = name + ".class";
+            File found = null;
+            for (File e : classpath) {
+                if (e.isDirectory() ? new File(e, path).isFile() : e.isFile() && jar(e).getEntry(path) != null) {
+                    found = e;
+                    break;
+                }
+            }
+            r = Optional.ofNullable(found);
+            locations.put(name, r);
+        }
+        return r.orElse(null);
+    }
+
+    /**
+     * Finds the classpath entries that have classes in the given package, in its internal form.
+     */
+    List<File> locatePackage(String pkg) throws IOException {
+        List<File> r = new ArrayList<>();
+        for (File e : classpath) {
+            if (e.isDirectory() ? new File(e, pkg).isDirectory() : e.isFile() && packagesOf(e).contains(pkg)) {
+                r.add(e);
+            }
+        }
+        return r;
+    }
+
+    private Set<String> packagesOf(File file) throws IOException {
+        Set<String> r = jarPackages.get(file);
+        if (r == null) {
+            r = new HashSet<>();
+            for (Enumeration<JarEntry> e = jar(file).entries(); e.hasMoreElements(); ) {
+                String name = e.nextElement().getName();
+                int idx = name.lastIndexOf('/');
+                if (name.endsWith(".class") && idx > 0) {
+                    r.add(name.substring(0, idx));
+                }
+            }
+            jarPackages.put(file, r);
+        }
+        return r;
+    }
+
+    private JarFile jar(File file) throws IOException {
+        JarFile jar = jars.get(file);
+        if (jar == null) {
+            jar = new JarFile(file);
+            jars.put(file, jar);
+        }
+        return jar;
+    }
+
+    /**
+     * Checks if the given class implements {@code org.apache.commons.jelly.Tag}.
+     *
+     * @return null if that can't be told, as some of its supertypes aren't in the classpath.
+     */
+    Boolean isTag(String name) throws IOException {
+        Optional<Boolean> r = tagTypes.get(name);
+        if (r == null) {
+            r = Optional.ofNullable(computeIsTag(name));
+            tagTypes.put(name, r);
+        }
+        return r.orElse(null);
+    }
+
+    private Boolean computeIsTag(String name) throws IOException {
+        if (name.equals(TAG_CLASS)) {
+            return true;
+        }
+        if (name.startsWith("java/")) {
+            // no need to look at the JDK to know that it doesn't have any tags
+            return false;
+        }
+        ClassInfo header = find(name);
+        if (header == null) {
+            return null;
+        }
+
+        List<String> supertypes = new ArrayList<>(header.interfaces);
+        if (header.superName != null) {
+            supertypes.add(header.superName);
+        }
+        Boolean r = false;
+        for (String t : supertypes) {
+            Boolean b = isTag(t);
+            if (b == null) {
+                r = null;
+            } else if (b) {
+                return true;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Lists the packages in the given directory of class files that contain tags, or that might,
+     * as far as the classpath tells.
+     */
+    SortedSet<String> tagPackages(File classesDir) throws IOException {
+        SortedSet<String> r = new TreeSet<>();
+        for (File f : BuildState.listFiles(classesDir)) {
+            String path = classesDir.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+            // javadoc only looks at top-level classes for tags
+            if (!path.endsWith(".class") || path.contains("$") || path.endsWith("-info.class")) {
+                continue;
+            }
+            String name = path.substring(0, path.length() - 6);
+            if (!Boolean.FALSE.equals(isTag(name))) {
+                int idx = name.lastIndexOf('/');
+                r.add(idx < 0 ? "" : name.substring(0, idx).replace('/', '.'));
+            }
+        }
+        return r;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (JarFile jar : jars.values()) {
+            jar.close();
+        }
+        jars.clear();
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.output.StreamSerializer;
+import java.beans.Introspector;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.namespace.QName;
+import org.jvnet.maven.jellydoc.ClassFileScanner.ClassInfo;
+import org.jvnet.maven.jellydoc.ClassFileScanner.MethodInfo;
+
+/**
+ * Builds the tag library fragments straight from the compiled classes, without javadoc.
+ *
+ * <p>
+ * This produces the same libraries, tags and attributes as {@link TagXMLDoclet}, with empty documentation,
+ * which is all the schemas need. The jellydoc annotations are read from the class files, so they
+ * must be of a version that retains them there.
+ */
+final class ClassFileTaglib {
+    private static final String RETENTION = "Ljava/lang/annotation/Retention;";
+    private static final String NO_CONTENT = "Lorg/jvnet/maven/jellydoc/annotation/NoContent;";
+    private static final String REQUIRED = "Lorg/jvnet/maven/jellydoc/annotation/Required;";
+    private static final String TAGLIB_URI = "Lorg/jvnet/maven/jellydoc/annotation/TagLibUri;";
+
+    private final ClassFileScanner scanner;
+
+    /**
+     * Memoizes {@link #attributesOf(String)}, as abstract base classes are shared by many tags.
+     */
+    private final Map<String, List<AttributeInfo>> attributes = new HashMap<>();
+
+    ClassFileTaglib(ClassFileScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Checks that the jellydoc annotations of the classpath, if there are any, are kept in the class files.
+     * Released versions only retain them in the sources, so the classes compiled against those have none to read.
+     */
+    boolean annotationsRetained() throws IOException {
+        ClassInfo required = scanner.find(REQUIRED.substring(1, REQUIRED.length() - 1));
+        if (required == null) {
+            return true;
+        }
+        Map<String, String> retention = required.annotations.get(RETENTION);
+        return retention != null && !"SOURCE".equals(retention.get("value"));
+    }
+
+    /**
+     * Writes a fragment for every package of the given directory that has tags.
+     *
+     * @return the number of fragments written.
+     */
+    int write(File classesDir, TaglibFragments fragments) throws IOException {
+        // top-level classes by package, as javadoc would see them
+        Map<String, List<String>> packages = new TreeMap<>();
+        for (File f : BuildState.listFiles(classesDir)) {
+            String path = classesDir.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+            if (!path.endsWith(".class") || path.contains("$") || path.endsWith("-info.class")) {
+                continue;
+            }
+            String name = path.substring(0, path.length() - 6);
+            int idx = name.lastIndexOf('/');
+            packages.computeIfAbsent(idx < 0 ? "" : name.substring(0, idx), k -> new ArrayList<>()).add(name);
+        }
+
+        int r = 0;
+        for (Map.Entry<String, List<String>> e : packages.entrySet()) {
+            List<ClassInfo> tags = new ArrayList<>();
+            for (String name : e.getValue()) {
+                if (Boolean.TRUE.equals(scanner.isTag(name))) {
+                    tags.add(scanner.find(name));
+                }
+            }
+            if (tags.isEmpty()) {
+                continue;
+            }
+            String pkg = e.getKey().replace('/', '.');
+            try (OutputStream out = new FileOutputStream(fragments.xml(pkg))) {
+                Library library = TXW.create(new QName("library"), Library.class, new StreamSerializer(out));
+                libraryXML(pkg, e.getKey(), tags, library);
+                library.commit();
+            }
+            r++;
+        }
+        return r;
+    }
+
+    private void libraryXML(String pkg, String dir, List<ClassInfo> tags, Library library) throws IOException {
+        library.name(pkg);
+        String prefix = pkg.substring(pkg.lastIndexOf('.') + 1);
+        library.prefix(prefix);
+
+        String uri = null;
+        ClassInfo packageInfo = scanner.find(dir.isEmpty() ? "package-info" : dir + "/package-info");
+        if (packageInfo != null && packageInfo.annotations.containsKey(TAGLIB_URI)) {
+            // the doclet writes the value as it appears in the source, quotes included
+            uri = quote(packageInfo.annotations.get(TAGLIB_URI).get("value"));
+        }
+        library.uri(uri != null ? uri : "jelly:" + prefix);
+        library.doc();
+
+        for (ClassInfo c : tags) {
+            if ((c.access & ClassFileScanner.ACC_ABSTRACT) == 0) {
+                tagXML(c, library.tag());
+            }
+        }
+    }
+
+    private void tagXML(ClassInfo c, Tag tag) throws IOException {
+        String name = c.name.substring(c.name.lastIndexOf('/') + 1);
+        tag.className(name);
+        tag.name(tagName(name));
+        if (c.annotations.containsKey(NO_CONTENT)) {
+            tag.noContent(true);
+        }
+        tag.doc();
+
+        for (AttributeInfo a : attributesOf(c.name)) {
+            Attribute att = tag.attribute();
+            att.name(a.name);
+            att.type(a.type);
+            if (a.required) {
+                att.use("required");
+            }
+            att.doc();
+        }
+    }
+
+    /**
+     * Name of the tag implemented by the given class.
+     */
+    static String tagName(String simpleClassName) {
+        String name = simpleClassName;
+        if (name.endsWith("Tag")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return Introspector.decapitalize(name);
+    }
+
+    static final class AttributeInfo {
+        final String name;
+        final String type;
+        final boolean required;
+
+        AttributeInfo(String name, String type, boolean required) {
+            this.name = name;
+            this.type = type;
+            this.required = required;
+        }
+    }
+
+    /**
+     * Lists the attributes of the given class, including inherited ones.
+     */
+    List<AttributeInfo> attributesOf(String className) throws IOException {
+        List<AttributeInfo> r = attributes.get(className);
+        if (r == null) {
+            r = new ArrayList<>();
+            ClassInfo c = scanner.find(className);
+            if (c != null) {
+                for (MethodInfo m : c.methods) {
+                    AttributeInfo a = propertyXML(m);
+                    if (a != null) {
+                        r.add(a);
+                    }
+                }
+                if (c.superName != null) {
+                    r.addAll(attributesOf(c.superName));
+                }
+            }
+            attributes.put(className, r);
+        }
+        return r;
+    }
+
+    /**
+     * @return null if the method isn't an attribute setter
+     */
+    private static AttributeInfo propertyXML(MethodInfo m) {
+        // javac adds bridge methods that javadoc doesn't see
+        int excluded = ClassFileScanner.ACC_STATIC | ClassFileScanner.ACC_BRIDGE | ClassFileScanner.ACC_SYNTHETIC;
+        if ((m.access & ClassFileScanner.ACC_PUBLIC) == 0 || (m.access & excluded) != 0) {
+            return null;
+        }
+        if (!m.name.startsWith("set")) {
+            return null;
+        }
+        List<String> parameters = new Signature(m.signature != null ? m.signature : m.descriptor).parameters();
+        if (parameters.size() != 1) {
+            return null;
+        }
+        String name = Introspector.decapitalize(m.name.substring(3));
+        if (name.equals("body") || name.equals("context") || name.equals("parent")) {
+            return null;
+        }
+        return new AttributeInfo(name, parameters.get(0), m.annotations.containsKey(REQUIRED));
+    }
+
+    /**
+     * Quotes a string the way javac prints a string constant.
+     */
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int idx = "\b\f\n\r\t'\"\\".indexOf(c);
+            if (idx >= 0) {
+                sb.append('\\').append("bfnrt'\"\\".charAt(idx));
+            } else if (c < ' ' || c > '~') {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Turns a method descriptor or generic signature into the parameter types, spelled the way javac does,
+     * as in {@code java.util.List<java.lang.String>}.
+     */
+    private static final class Signature {
+        private final String s;
+        private int pos;
+
+        Signature(String s) {
+            this.s = s;
+        }
+
+        List<String> parameters() {
+            if (s.charAt(pos) == '<') {
+                // type parameters of the method, whose bounds may have type arguments of their own
+                int depth = 0;
+                do {
+                    char c = s.charAt(pos++);
+                    if (c == '<') {
+                        depth++;
+                    } else if (c == '>') {
+                        depth--;
+                    }
+                } while (depth > 0);
+            }
+            pos++; // '('
+            List<String> r = new ArrayList<>();
+            while (s.charAt(pos) != ')') {
+                r.add(type());
+            }
+            return r;
+        }
+
+        private String type() {
+            char c = s.charAt(pos++);
+            switch (c) {
+                case 'B':
+                    return "byte";
+                case 'C':
+                    return "char";
+                case 'D':
+                    return "double";
+                case 'F':
+                    return "float";
+                case 'I':
+                    return "int";
+                case 'J':
+                    return "long";
+                case 'S':
+                    return "short";
+                case 'Z':
+                    return "boolean";
+                case '[':
+                    return type() + "[]";
+                case 'T':
+                    int end = s.indexOf(';', pos);
+                    String var = s.substring(pos, end);
+                    pos = end + 1;
+                    return var;
+                case 'L':
+                    return classType();
+                default:
+                    throw new IllegalArgumentException("Unexpected " + c + " in " + s);
+            }
+        }
+
+        private String classType() {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == ';') {
+                    return sb.toString();
+                }
+                if (c == '/' || c == '$') {
+                    sb.append('.');
+                } else if (c == '<') {
+                    sb.append('<');
+                    String sep = "";
+                    while (s.charAt(pos) != '>') {
+                        sb.append(sep).append(typeArgument());
+                        sep = ",";
+                    }
+                    pos++;
+                    sb.append('>');
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private String typeArgument() {
+            char c = s.charAt(pos);
+            switch (c) {
+                case '*':
+                    pos++;
+                    return "?";
+                case '+':
+                    pos++;
+                    return "? extends " + type();
+                case '-':
+                    pos++;
+                    return "? super " + type();
+                default:
+                    return type();
+            }
+        }
+    }
+}
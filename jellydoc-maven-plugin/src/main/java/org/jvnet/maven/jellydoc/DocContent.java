@@ -0,0 +1,114 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import com.sun.xml.txw2.TypedXmlWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+/**
+ * Parsed doc comment, which can be written out any number of times
+ * without going through javadoc and the HTML parser again.
+ *
+ * <p>
+ * The HTML is parsed the first time it's needed, on whichever thread writes it out first, so that
+ * the parsing doesn't have to happen while the javac model is being walked, which is single-threaded.
+ * Doc comments of inherited attributes are written out by many tags, possibly concurrently.
+ */
+final class DocContent {
+    /**
+     * Turns the HTML of a doc comment into the contents of the {@code <doc>} element.
+     */
+    interface Parser {
+        void parse(String text, List<Object> body) throws SAXException;
+    }
+
+    private final String text;
+    private final Parser parser;
+
+    /**
+     * Contents of the {@code <doc>} element, each of which is either a {@link String} or a {@link Markup}.
+     * Null until parsed.
+     */
+    private List<Object> body;
+
+    /**
+     * Javadoc block tags, which become siblings of the {@code <doc>} element, as name/text pairs.
+     */
+    private final List<String[]> tags = new ArrayList<>();
+
+    /**
+     * HTML element in the doc comment.
+     */
+    static final class Markup {
+        final String name;
+        final List<Object> children = new ArrayList<>();
+
+        Markup(String name) {
+            this.name = name;
+        }
+    }
+
+    DocContent(String text, Parser parser) {
+        this.text = text;
+        this.parser = parser;
+    }
+
+    /**
+     * Top-level nodes of the {@code <doc>} element, parsed if not done yet.
+     */
+    synchronized List<Object> body() throws SAXException {
+        if (body == null) {
+            List<Object> r = new ArrayList<>();
+            parser.parse(text, r);
+            body = r;
+        }
+        return body;
+    }
+
+    void addTag(String name, String text) {
+        tags.add(new String[] {name, text});
+    }
+
+    /**
+     * Writes the {@code <doc>} element, followed by the block tags.
+     */
+    void write(Item w) throws SAXException {
+        writeBody(w.doc());
+        for (String[] tag : tags) {
+            w._element(tag[0], TypedXmlWriter.class)._pcdata(tag[1]);
+        }
+    }
+
+    /**
+     * Writes just the contents of the {@code <doc>} element.
+     */
+    void writeBody(TypedXmlWriter d) throws SAXException {
+        write(body(), d);
+    }
+
+    private static void write(List<Object> nodes, TypedXmlWriter w) {
+        for (Object node : nodes) {
+            if (node instanceof Markup) {
+                Markup m = (Markup) node;
+                write(m.children, w._element(m.name, TypedXmlWriter.class));
+            } else {
+                w._pcdata(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jvnet.maven.jellydoc.ClassFileScanner.ClassInfo;
+import org.jvnet.maven.jellydoc.ClassFileScanner.MethodInfo;
+
+/**
+ * Works out which entries of the compile classpath javadoc needs for a set of sources, going by their class files,
+ * so that it doesn't have to open and index all the others.
+ *
+ * <p>
+ * Javadoc needs whatever the sources refer to, and whatever the other sources it reads along the way
+ * through the source path refer to. Of the classes in the classpath, it needs the supertypes, and the types of
+ * the setters that tags inherit from them. The class files tell most of that; imports tell the rest,
+ * such as classes only used as compile-time constants.
+ */
+final class JavadocClasspath {
+    private static final Pattern IMPORT =
+            Pattern.compile("^\\s*import\\s+(static\\s+)?([\\w$.]+?)(\\s*\\.\\s*\\*)?\\s*;", Pattern.MULTILINE);
+
+    private final List<File> sourceRoots;
+    private final File classesDir;
+    private final ClassFileScanner scanner;
+
+    /**
+     * Classpath entries needed so far.
+     */
+    private final Set<File> needed = new HashSet<>();
+
+    /**
+     * Top-level classes of {@link #classesDir} whose sources javadoc reads.
+     */
+    private final Set<String> sources = new HashSet<>();
+
+    private final Deque<String> queue = new ArrayDeque<>();
+
+    /**
+     * Classes of the classpath whose supertypes have been looked at.
+     */
+    private final Set<String> supertypes = new HashSet<>();
+
+    /**
+     * @param scanner looks up classes in {@code classesDir} first, and then in the compile classpath.
+     */
+    JavadocClasspath(List<File> sourceRoots, File classesDir, ClassFileScanner scanner) {
+        this.sourceRoots = sourceRoots;
+        this.classesDir = classesDir;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Picks the entries of the given classpath needed to run javadoc over the given source files.
+     *
+     * @return the entries, in the same order.
+     */
+    List<File> compute(List<File> sourceFiles, List<File> classpath) throws IOException {
+        for (File f : sourceFiles) {
+            for (File root : sourceRoots) {
+                if (f.toPath().startsWith(root.toPath())) {
+                    String path = root.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+                    enqueue(path.substring(0, path.length() - ".java".length()));
+                    break;
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            String name = queue.pop();
+            for (ClassInfo c : compiledFrom(name)) {
+                for (String ref : c.references) {
+                    reference(ref);
+                }
+                if (c.superName != null) {
+                    supertype(c.superName);
+                }
+                for (String i : c.interfaces) {
+                    supertype(i);
+                }
+            }
+            imports(name);
+        }
+
+        List<File> r = new ArrayList<>();
+        for (File e : classpath) {
+            if (needed.contains(e)) {
+                r.add(e);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Notes that javadoc reads the source of the given top-level class.
+     */
+    private void enqueue(String name) {
+        if (sources.add(name)) {
+            queue.add(name);
+        }
+    }
+
+    /**
+     * Lists the classes compiled from the source of the given top-level class, nested classes included.
+     */
+    private List<ClassInfo> compiledFrom(String name) throws IOException {
+        int idx = name.lastIndexOf('/');
+        String simpleName = name.substring(idx + 1);
+        File[] files = new File(classesDir, idx < 0 ? "" : name.substring(0, idx))
+                .listFiles((d, n) -> n.endsWith(".class")
+                        && (n.equals(simpleName + ".class") || n.startsWith(simpleName + "$")));
+        List<ClassInfo> r = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                ClassInfo c = scanner.find(name.substring(0, idx + 1) + f.getName().replace(".class", ""));
+                if (c != null) {
+                    r.add(c);
+                }
+            }
+        }
+        return r;
+    }
+
+    private void reference(String name) throws IOException {
+        if (name.startsWith("java/")) {
+            return;
+        }
+        File e = scanner.locate(name);
+        if (e == null) {
+            return;
+        }
+        if (e.equals(classesDir)) {
+            int idx = name.indexOf('$', name.lastIndexOf('/') + 1);
+            enqueue(idx < 0 ? name : name.substring(0, idx));
+        } else {
+            needed.add(e);
+        }
+    }
+
+    /**
+     * Goes up the type hierarchy through the classpath, along with the types of the inherited setters.
+     */
+    private void supertype(String name) throws IOException {
+        if (name.startsWith("java/")) {
+            return;
+        }
+        File e = scanner.locate(name);
+        if (e != null && e.equals(classesDir)) {
+            reference(name);
+            return;
+        }
+        if (!supertypes.add(name)) {
+            return;
+        }
+        reference(name);
+        ClassInfo c = scanner.find(name);
+        if (c == null) {
+            return;
+        }
+        for (MethodInfo m : c.methods) {
+            if ((m.access & ClassFileScanner.ACC_PUBLIC) != 0 && m.name.startsWith("set")) {
+                Set<String> types = new HashSet<>();
+                ClassFileScanner.referencesIn(m.signature != null ? m.signature : m.descriptor, types);
+                for (String t : types) {
+                    reference(t);
+                }
+            }
+        }
+        if (c.superName != null) {
+            supertype(c.superName);
+        }
+        for (String i : c.interfaces) {
+            supertype(i);
+        }
+    }
+
+    /**
+     * Javac doesn't record imports in class files, not even those of classes it ended up not using,
+     * which javadoc still needs to resolve.
+     */
+    private void imports(String name) throws IOException {
+        for (File root : sourceRoots) {
+            File f = new File(root, name + ".java");
+            if (!f.isFile()) {
+                continue;
+            }
+            Matcher m = IMPORT.matcher(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+            while (m.find()) {
+                String imported = m.group(2).replace('.', '/');
+                boolean onDemand = m.group(3) != null;
+                if (m.group(1) != null) {
+                    // the class of a static member, or of all of them
+                    importClass(onDemand ? imported : imported.substring(0, Math.max(0, imported.lastIndexOf('/'))));
+                } else if (!importClass(imported) && onDemand) {
+                    for (File e : scanner.locatePackage(imported)) {
+                        if (!e.equals(classesDir)) {
+                            needed.add(e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name a class name whose nested classes are separated by '/' like packages
+     * @return false if there's no such class in the classpath.
+     */
+    private boolean importClass(String name) throws IOException {
+        String candidate = name;
+        while (true) {
+            if (scanner.locate(candidate) != null) {
+                reference(candidate);
+                return true;
+            }
+            int idx = candidate.lastIndexOf('/');
+            if (idx < 0) {
+                return false;
+            }
+            candidate = candidate.substring(0, idx) + '$' + candidate.substring(idx + 1);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkFactory;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Execute;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.reporting.MavenReportException;
+
+/**
+ * Merges the tag libraries of all the modules in the reactor into one {@code taglib.xml},
+ * one set of schemas, and one report.
+ *
+ * <p>
+ * Modules whose taglib wasn't generated yet in this build are generated on the fly, concurrently when javadoc
+ * runs in separate JVMs. The modules are compiled first, as the class files are what tells the tags apart.
+ * If the same library shows up in more than one module, the first module in the reactor order wins.
+ */
+@Mojo(name = "aggregate", aggregator = true, requiresDependencyResolution = ResolutionScope.COMPILE)
+@Execute(phase = LifecyclePhase.COMPILE)
+public class JellydocAggregateMojo extends JellydocMojo {
+    /**
+     * The projects in the reactor.
+     */
+    @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
+    public List<MavenProject> reactorProjects;
+
+    /**
+     * Name of the zip file, attached with the same classifier, that bundles all the schemas.
+     */
+    static final String SCHEMA_BUNDLE = "taglib-schemas";
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        TaglibFragments merged = merge(generateModules());
+
+        File taglibXml = new File(targetDir(), "taglib.xml");
+        File taglibBin = new File(targetDir(), BINARY_TAGLIB);
+        try {
+            merged.assemble(taglibXml);
+            BinaryTaglib.write(merged.libraries(), taglibBin);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + taglibXml, e);
+        }
+
+        generateSchema(merged);
+        bundleSchemas();
+    }
+
+    /**
+     * Puts the library fragments of the modules together, in the reactor order.
+     */
+    TaglibFragments merge(Map<MavenProject, TaglibFragments> modules) throws MojoExecutionException {
+        TaglibFragments merged = new TaglibFragments(new File(targetDir(), TaglibFragments.DIR_NAME));
+        merged.clear();
+        Map<String, MavenProject> owners = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<MavenProject, TaglibFragments> e : modules.entrySet()) {
+                for (File library : e.getValue().libraries()) {
+                    MavenProject owner = owners.putIfAbsent(library.getName(), e.getKey());
+                    if (owner != null) {
+                        getLog().warn("Tag library " + library.getName() + " of " + e.getKey().getArtifactId()
+                                + " is already defined in " + owner.getArtifactId() + "; ignoring");
+                        continue;
+                    }
+                    merged.include(library);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to merge the tag libraries", e);
+        }
+        getLog().info("Merged " + owners.size() + " tag libraries from " + modules.size() + " modules");
+        return merged;
+    }
+
+    /**
+     * Makes sure the taglib of every module is generated, and returns their library fragments.
+     */
+    private Map<MavenProject, TaglibFragments> generateModules() throws MojoExecutionException {
+        List<MavenProject> modules = new ArrayList<>();
+        for (MavenProject p : reactorProjects) {
+            if (!p.getCompileSourceRoots().isEmpty()) {
+                modules.add(p);
+            }
+        }
+
+        // modules are independent of each other, so the cost is that of the biggest one, given enough cores.
+        // Javadoc run inside this JVM writes to the same console, and spreads over the cores already
+        int threads = fork ? Math.min(modules.size(), Runtime.getRuntime().availableProcessors()) : 1;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            Map<MavenProject, Future<TaglibFragments>> futures = new LinkedHashMap<>();
+            for (MavenProject module : modules) {
+                futures.put(module, pool.submit(() -> generateModule(module)));
+            }
+            Map<MavenProject, TaglibFragments> r = new LinkedHashMap<>();
+            for (Map.Entry<MavenProject, Future<TaglibFragments>> e : futures.entrySet()) {
+                TaglibFragments fragments = e.getValue().get();
+                if (fragments != null) {
+                    r.put(e.getKey(), fragments);
+                }
+            }
+            return r;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException("Failed to generate the tag libraries", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while generating the tag libraries", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return null if the module has no taglib.
+     */
+    private TaglibFragments generateModule(MavenProject module) throws MojoExecutionException {
+        JellydocMojo m = forModule(module);
+        // leave the artifacts of the module alone
+        m.attach = false;
+        try {
+            // which goes through the inputs once, and stops there if the outputs are up to date
+            m.execute();
+
+            TaglibFragments fragments = new TaglibFragments(new File(m.targetDir(), TaglibFragments.DIR_NAME));
+            if (fragments.getDir().exists()) {
+                return fragments;
+            }
+            File taglibXml = new File(m.targetDir(), "taglib.xml");
+            if (taglibXml.exists()) {
+                // not generated by this version of the plugin
+                return TaglibFragments.split(taglibXml, new File(targetDir(), "split/" + module.getArtifactId()));
+            }
+            return null;
+        } catch (MojoExecutionException | IOException e) {
+            throw new MojoExecutionException("Failed to generate the taglib of " + module.getArtifactId(), e);
+        }
+    }
+
+    /**
+     * Zips up all the schemas, so that they can be downloaded together. Nothing is written without any schema.
+     */
+    void bundleSchemas() throws MojoExecutionException {
+        File zip = new File(targetDir(), SCHEMA_BUNDLE + ".zip");
+        List<File> schemas = listSchemas();
+        if (schemas.isEmpty()) {
+            zip.delete();
+            return;
+        }
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (File schema : schemas) {
+                out.putNextEntry(new ZipEntry(schema.getName()));
+                Files.copy(schema.toPath(), out);
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + zip, e);
+        }
+        if (attach) {
+            helper.attachArtifact(project, "zip", SCHEMA_BUNDLE, zip);
+        }
+    }
+
+    @Override
+    File targetDir() {
+        return new File(project.getBasedir(), "target/jellydoc-aggregate");
+    }
+
+    @Override
+    public void generate(Sink sink, SinkFactory sinkFactory, Locale locale) throws MavenReportException {
+        try {
+            execute();
+        } catch (MojoExecutionException e) {
+            throw new MavenReportException("Failed to generate report", e);
+        }
+        renderReport(sink, sinkFactory);
+    }
+
+    @Override
+    public String getOutputName() {
+        return "jelly-taglib-ref-aggregate";
+    }
+
+    @Override
+    public String getName(Locale locale) {
+        return "Jelly taglib reference (aggregate)";
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "Jelly taglib reference of all the modules";
+    }
+}
@@ -16,12 +16,31 @@
 package org.jvnet.maven.jellydoc;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.tools.DocumentationTool;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
 import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -48,22 +67,19 @@ import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.reporting.MavenMultiPageReport;
 import org.apache.maven.reporting.MavenReportException;
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Javadoc;
-import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.codehaus.plexus.util.FileUtils;
 import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.DocumentSource;
-import org.dom4j.io.SAXReader;
-import org.dom4j.tree.DefaultDocument;
 import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.SessionData;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.xml.sax.SAXException;
 
 /**
  * Generates jellydoc XML and other artifacts from there.
@@ -112,10 +128,466 @@ public class JellydocMojo extends AbstractMojo implements MavenMultiPageReport {
     @Component
     public MavenProjectHelper helper;
 
+    /**
+     * Skips javadoc and schema generation when the sources, the compile classpath and the plugin version
+     * are all unchanged since the last run. Previously generated schemas are still attached.
+     */
+    @Parameter(property = "jellydoc.incremental", defaultValue = "true")
+    public boolean incremental = true;
+
+    /**
+     * Runs javadoc in a separate JVM, like older versions of this plugin did, instead of inside the Maven JVM.
+     * A separate JVM is used anyway when the Maven JVM doesn't come with the javadoc tool.
+     */
+    @Parameter(property = "jellydoc.fork", defaultValue = "false")
+    public boolean fork = false;
+
+    /**
+     * Looks through the compiled classes for tags first, so that javadoc only needs to go through
+     * the packages that have any. Everything goes through javadoc when the classes aren't compiled yet.
+     */
+    @Parameter(property = "jellydoc.scanClasses", defaultValue = "true")
+    public boolean scanClasses = true;
+
+    /**
+     * Builds the taglib straight from the compiled classes, skipping javadoc, when only the schemas are needed.
+     * This is much faster, but leaves out all the documentation. The classes must be compiled first.
+     */
+    @Parameter(property = "jellydoc.schemaOnly", defaultValue = "false")
+    public boolean schemaOnly = false;
+
+    /**
+     * Builds the taglib from what the annotation processor of {@code jellydoc-processor} recorded during
+     * the compilation, instead of running javadoc. Javadoc is still used when the classes aren't compiled yet,
+     * or the processor didn't run.
+     */
+    @Parameter(property = "jellydoc.processorOutput", defaultValue = "false")
+    public boolean processorOutput = false;
+
+    /**
+     * Hands javadoc only the jars that the tags need, as told by their class files, instead of the whole
+     * compile classpath, which saves javadoc from opening and indexing jars it never uses.
+     * Should javadoc fail with that classpath, it is run again with the whole one.
+     * The whole classpath is used anyway when the classes aren't compiled yet.
+     */
+    @Parameter(property = "jellydoc.minimalClasspath", defaultValue = "false")
+    public boolean minimalClasspath = false;
+
+    /**
+     * Directory shared by all the workspaces on this machine, such as those of a CI agent, where the outputs
+     * are kept by the digest of the inputs, so that a build whose sources and classpath have been seen before,
+     * in any workspace, restores them instead of generating them again. Disabled unless set.
+     */
+    @Parameter(property = "jellydoc.cacheDirectory")
+    public File cacheDirectory;
+
+    /**
+     * Size in megabytes beyond which the least recently used outputs are evicted from {@link #cacheDirectory}.
+     */
+    @Parameter(property = "jellydoc.cacheSize", defaultValue = "1024")
+    public long cacheSize = 1024;
+
     private File outputDirectory;
 
+    /**
+     * False when generating a module for {@link JellydocAggregateMojo}, which shouldn't change
+     * the artifacts of the module.
+     */
+    boolean attach = true;
+
+    /**
+     * Name of the {@link BinaryTaglib} written next to {@code taglib.xml}.
+     */
+    static final String BINARY_TAGLIB = "taglib.bin";
+
     @Override
     public void execute() throws MojoExecutionException {
+        List<File> sourceRoots = sourceRoots();
+        if (sourceRoots.isEmpty()) {
+            return;
+        }
+
+        Metrics metrics = new Metrics();
+        session.getRepositorySession().getData().set(metricsKey(), metrics);
+
+        File stateFile = new File(targetDir(), BuildState.FILE_NAME);
+        BuildState state;
+        try (Metrics.Phase p = metrics.start("fingerprint")) {
+            state = computeState(sourceRoots);
+        }
+        BuildState previous = BuildState.load(stateFile);
+        File taglibXml = new File(targetDir(), "taglib.xml");
+        if (incremental && outputsExist() && state.equals(previous)) {
+            getLog().info("Jelly taglib is up to date");
+            attachSchemas();
+            session.getRepositorySession().getData().set(stateKey(), state);
+            saveMetrics(metrics);
+            return;
+        }
+        // if we fail half way, the next run must not mistake partial outputs for up-to-date ones
+        stateFile.delete();
+
+        TaglibFragments fragments = new TaglibFragments(new File(targetDir(), TaglibFragments.DIR_NAME));
+        OutputCache cache = null;
+        String cacheKey = null;
+        if (cacheDirectory != null) {
+            cache = new OutputCache(cacheDirectory, cacheSize * 1024 * 1024);
+            Set<File> restored = null;
+            try (Metrics.Phase p = metrics.start("cacheRestore")) {
+                cacheKey = state.portableDigest(project.getBasedir(), project.getArtifacts());
+                restored = cache.restore(cacheKey, targetDir());
+                if (restored != null) {
+                    // leftovers of earlier runs in this workspace
+                    List<File> stale = new ArrayList<>(listSchemas());
+                    stale.addAll(BuildState.listFiles(new File(targetDir(), TaglibFragments.DIR_NAME)));
+                    for (File f : stale) {
+                        if (!restored.contains(f)) {
+                            f.delete();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                getLog().warn("Failed to restore the Jelly taglib from " + cache, e);
+                // what's there may be half restored, so nothing of it can be reused
+                previous = null;
+                restored = null;
+            }
+            if (restored != null) {
+                getLog().info("Restored the Jelly taglib from " + cache);
+                attachSchemas();
+                try {
+                    state.save(stateFile);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to write " + stateFile, e);
+                }
+                session.getRepositorySession().getData().set(stateKey(), state);
+                saveMetrics(metrics);
+                return;
+            }
+        }
+
+        if (schemaOnly) {
+            try (Metrics.Phase p = metrics.start("classFiles")) {
+                classFileFragments(sourceRoots, fragments);
+            }
+        } else if (useProcessorOutput(sourceRoots)) {
+            try (Metrics.Phase p = metrics.start("processor")) {
+                processorFragments(fragments);
+            }
+        } else {
+            javadocFragments(sourceRoots, state, previous, fragments, metrics);
+        }
+
+        try (Metrics.Phase p = metrics.start("assemble")) {
+            try {
+                fragments.assemble(taglibXml);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to write " + taglibXml, e);
+            }
+            File taglibBin = new File(targetDir(), BINARY_TAGLIB);
+            try {
+                BinaryTaglib.write(fragments.libraries(), taglibBin);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to write " + taglibBin, e);
+            }
+        }
+
+        generateSchema(fragments);
+
+        if (cacheKey != null) {
+            try (Metrics.Phase p = metrics.start("cacheStore")) {
+                List<File> outputs = new ArrayList<>(listSchemas());
+                outputs.add(taglibXml);
+                outputs.add(new File(targetDir(), BINARY_TAGLIB));
+                outputs.add(new File(targetDir(), TaglibFragments.DIR_NAME));
+                cache.store(cacheKey, targetDir(), outputs);
+            } catch (IOException e) {
+                getLog().warn("Failed to store the Jelly taglib in " + cache, e);
+            }
+        }
+
+        try {
+            state.save(stateFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + stateFile, e);
+        }
+        session.getRepositorySession().getData().set(stateKey(), state);
+        saveMetrics(metrics);
+    }
+
+    /**
+     * Brings the fragments up to date by running javadoc over the packages that need it.
+     */
+    private void javadocFragments(
+            List<File> sourceRoots,
+            BuildState state,
+            BuildState previous,
+            TaglibFragments fragments,
+            Metrics metrics)
+            throws MojoExecutionException {
+        File taglibXml = new File(targetDir(), "taglib.xml");
+        Map<String, List<File>> packages = javaSources(sourceRoots);
+        Set<String> tagPackages;
+        try (Metrics.Phase p = metrics.start("scan")) {
+            tagPackages = tagPackages(packages);
+        }
+        Set<String> dirty;
+        try {
+            if (incremental && taglibXml.exists() && previous != null && state.hasSameEnvironment(previous)) {
+                dirty = fragments.affectedPackages(state.changedSources(previous), sourceRoots);
+                if (tagPackages != null) {
+                    // packages that became tags because of a change elsewhere
+                    for (String pkg : tagPackages) {
+                        if (!fragments.xml(pkg).exists()) {
+                            dirty.add(pkg);
+                        }
+                    }
+                }
+                getLog().info("Regenerating " + dirty.size() + " out of " + packages.size() + " packages");
+            } else {
+                fragments.clear();
+                dirty = new TreeSet<>(packages.keySet());
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to determine the packages to regenerate", e);
+        }
+
+        List<File> sources = new ArrayList<>();
+        for (String pkg : dirty) {
+            fragments.remove(pkg);
+            // superclasses in the other packages are still found through the source path
+            if (tagPackages == null || tagPackages.contains(pkg)) {
+                sources.addAll(packages.getOrDefault(pkg, List.of()));
+            }
+        }
+        if (!sources.isEmpty()) {
+            List<File> classpath = null;
+            if (minimalClasspath) {
+                try (Metrics.Phase p = metrics.start("classpath")) {
+                    classpath = minimalClasspath(sourceRoots, packages, sources);
+                }
+            }
+            File docletMetrics = new File(targetDir(), Metrics.DOCLET_FILE_NAME);
+            docletMetrics.delete();
+            try (Metrics.Phase p = metrics.start("javadoc")) {
+                if (classpath == null) {
+                    javadoc(sourceRoots, sources, classpath(), false, fragments, docletMetrics);
+                } else {
+                    try {
+                        javadoc(sourceRoots, sources, classpath, true, fragments, docletMetrics);
+                    } catch (MojoExecutionException | BuildException e) {
+                        getLog().warn("javadoc failed with the minimal classpath; running it with the whole one", e);
+                        javadoc(sourceRoots, sources, classpath(), false, fragments, docletMetrics);
+                    }
+                }
+            }
+            try {
+                metrics.readDocletMetrics(docletMetrics);
+            } catch (IOException e) {
+                getLog().warn("Failed to read " + docletMetrics, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the fragments from the compiled classes, for {@link #schemaOnly}.
+     */
+    private void classFileFragments(List<File> sourceRoots, TaglibFragments fragments) throws MojoExecutionException {
+        File classesDir = new File(project.getBuild().getOutputDirectory());
+        if (!classesUpToDate(javaSources(sourceRoots), classesDir)) {
+            throw new MojoExecutionException(
+                    "jellydoc.schemaOnly needs the classes compiled first; run it after the compile phase");
+        }
+        try (ClassFileScanner scanner = new ClassFileScanner(scanClasspath(classesDir))) {
+            ClassFileTaglib taglib = new ClassFileTaglib(scanner);
+            if (!taglib.annotationsRetained()) {
+                throw new MojoExecutionException("jellydoc.schemaOnly needs a jellydoc-annotations that keeps"
+                        + " @Required, @NoContent and @TagLibUri in the class files; upgrade it, or run without"
+                        + " schemaOnly");
+            }
+            fragments.clear();
+            int n = taglib.write(classesDir, fragments);
+            getLog().info("Found " + n + " tag libraries in " + classesDir);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to scan " + classesDir, e);
+        }
+    }
+
+    /**
+     * Checks if {@link #processorOutput} is asked for, and the annotation processor ran over the current sources,
+     * in which case its output is used instead of javadoc.
+     */
+    private boolean useProcessorOutput(List<File> sourceRoots) {
+        if (!processorOutput) {
+            return false;
+        }
+        File classesDir = new File(project.getBuild().getOutputDirectory());
+        return ProcessorTaglib.dir(classesDir).isDirectory() && classesUpToDate(javaSources(sourceRoots), classesDir);
+    }
+
+    /**
+     * Writes the fragments from what the annotation processor recorded.
+     */
+    private void processorFragments(TaglibFragments fragments) throws MojoExecutionException {
+        File classesDir = new File(project.getBuild().getOutputDirectory());
+        getLog().info("Using the Jelly tags recorded by the annotation processor");
+        fragments.clear();
+        try (ClassFileScanner scanner = new ClassFileScanner(scanClasspath(classesDir))) {
+            int n = new ProcessorTaglib(classesDir, scanner).write(fragments);
+            getLog().info("Found " + n + " tag libraries in " + ProcessorTaglib.dir(classesDir));
+        } catch (IOException | SAXException e) {
+            throw new MojoExecutionException("Failed to read " + ProcessorTaglib.dir(classesDir), e);
+        }
+    }
+
+    /**
+     * Key under which the {@link Metrics} of the latest run are kept for the rest of the session,
+     * so that the report can add to them.
+     */
+    private String metricsKey() {
+        return JellydocMojo.class.getName() + ".metrics:" + targetDir().getAbsolutePath();
+    }
+
+    private Metrics metrics() {
+        SessionData data = session.getRepositorySession().getData();
+        Object metrics = data.get(metricsKey());
+        if (!(metrics instanceof Metrics)) {
+            metrics = new Metrics();
+            data.set(metricsKey(), metrics);
+        }
+        return (Metrics) metrics;
+    }
+
+    private void saveMetrics(Metrics metrics) {
+        metrics.log(getLog());
+        File file = new File(targetDir(), Metrics.FILE_NAME);
+        try {
+            metrics.save(file);
+        } catch (IOException e) {
+            // not worth failing the build over
+            getLog().warn("Failed to write " + file, e);
+        }
+    }
+
+    private List<File> sourceRoots() {
+        List<File> sourceRoots = new ArrayList<>();
+        for (Object dir : project.getCompileSourceRoots()) {
+            File dirFile = new File(dir.toString());
+            // For pom projects the dir might not exist
+            if (dirFile.exists()) {
+                sourceRoots.add(dirFile);
+            }
+        }
+        return sourceRoots;
+    }
+
+    private BuildState computeState(List<File> sourceRoots) throws MojoExecutionException {
+        try {
+            BuildState state = BuildState.compute(sourceRoots, project.getArtifacts(), pluginVersion);
+            if (schemaOnly) {
+                return state.withMode("schemaOnly");
+            }
+            return useProcessorOutput(sourceRoots) ? state.withMode("processor") : state;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to fingerprint the jellydoc inputs", e);
+        }
+    }
+
+    /**
+     * Key under which the state of the outputs of this module is recorded for the rest of the session,
+     * once they are generated and attached.
+     */
+    String stateKey() {
+        return JellydocMojo.class.getName() + ".state:" + project.getBasedir().getAbsolutePath();
+    }
+
+    /**
+     * Checks that the outputs of an earlier run are all still there: {@code taglib.xml}, {@code taglib.bin},
+     * and the schema of every library prefix.
+     */
+    boolean outputsExist() {
+        if (!new File(targetDir(), "taglib.xml").exists() || !new File(targetDir(), BINARY_TAGLIB).exists()) {
+            return false;
+        }
+        try {
+            for (File lib : new TaglibFragments(new File(targetDir(), TaglibFragments.DIR_NAME)).libraries()) {
+                if (!new File(targetDir(), "taglib-" + TaglibFragments.prefixOf(lib) + ".xsd").exists()) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            // a fragment that can't be read is no better than a missing one
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the jellydoc goal already produced and attached the outputs of this module earlier in this build,
+     * and nothing changed since then. {@code mvn install site} would otherwise go through the inputs twice,
+     * and attach the same schemas twice.
+     */
+    boolean isGeneratedInThisSession() throws MojoExecutionException {
+        Object generated = session.getRepositorySession().getData().get(stateKey());
+        if (!(generated instanceof BuildState) || !outputsExist()) {
+            return false;
+        }
+        // someone else may have been at target/ since, such as a clean in the forked lifecycle
+        if (!generated.equals(BuildState.load(new File(targetDir(), BuildState.FILE_NAME)))) {
+            return false;
+        }
+        // the sources may have been changed since, but there's no need to read them all again to tell
+        String stamp = ((BuildState) generated).stamp();
+        List<File> sourceRoots = sourceRoots();
+        try {
+            return !sourceRoots.isEmpty()
+                    && stamp != null
+                    && stamp.equals(BuildState.stamp(sourceRoots, project.getArtifacts()));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to fingerprint the jellydoc inputs", e);
+        }
+    }
+
+    /**
+     * Runs {@link TagXMLDoclet} over the given source files, which writes a fragment per tag library.
+     *
+     * @param strict fail on any error javadoc reports, rather than only when the doclet couldn't run.
+     */
+    private void javadoc(
+            List<File> sourceRoots,
+            List<File> sources,
+            List<File> classpath,
+            boolean strict,
+            TaglibFragments fragments,
+            File metricsFile)
+            throws MojoExecutionException {
+        List<File> docletPath = docletPath();
+        List<String> docletParams = List.of(
+                "-d", targetDir().getAbsolutePath(),
+                "-fragments", fragments.getDir().getAbsolutePath(),
+                "-metrics", metricsFile.getAbsolutePath());
+
+        if (!fork) {
+            DocumentationTool tool = ToolProvider.getSystemDocumentationTool();
+            if (tool != null) {
+                inProcessJavadoc(tool, sourceRoots, sources, classpath, strict, docletPath, docletParams, metricsFile);
+                return;
+            }
+            getLog().warn("This JVM has no javadoc tool; forking javadoc instead");
+        }
+        forkJavadoc(sourceRoots, sources, classpath, strict, docletPath, docletParams);
+    }
+
+    /**
+     * Runs javadoc in a separate JVM through Ant.
+     */
+    private void forkJavadoc(
+            List<File> sourceRoots,
+            List<File> sources,
+            List<File> classpath,
+            boolean strict,
+            List<File> docletPath,
+            List<String> docletParams) {
         Project p = new Project();
 
         DefaultLogger logger = new DefaultLogger();
@@ -128,31 +600,124 @@ public class JellydocMojo extends AbstractMojo implements MavenMultiPageReport {
         javadoc.setTaskName("jellydoc");
         javadoc.setProject(p);
 
-        boolean foundDir = false;
-        for (Object dir : project.getCompileSourceRoots()) {
-            File dirFile = new File(dir.toString());
-            // For pom projects the dir might not exist
-            if (dirFile.exists()) {
-                FileSet fs = new FileSet();
-                fs.setProject(p);
-                fs.setDir(dirFile);
-                javadoc.addFileset(fs);
-                foundDir = true;
-            }
-        }
-
-        if (!foundDir) {
-            return;
+        // the rest of the sources are still needed to resolve and document superclasses
+        javadoc.setSourcepath(makePath(p, sourceRoots));
+        for (File source : sources) {
+            javadoc.addSource(new Javadoc.SourceFile(source));
         }
+        // there can be more files than what fits in a command line
+        javadoc.setUseExternalFile(true);
 
-        javadoc.setClasspath(makePath(p, project.getArtifacts()));
+        javadoc.setClasspath(makePath(p, classpath));
+        javadoc.setFailonerror(strict);
 
         Javadoc.DocletInfo d = javadoc.createDoclet();
         d.setProject(p);
         d.setName(TagXMLDoclet.class.getName());
-        setParam(d, "-d", targetDir().getAbsolutePath());
+        for (int i = 0; i < docletParams.size(); i += 2) {
+            setParam(d, docletParams.get(i), docletParams.get(i + 1));
+        }
+        d.setPath(makePath(p, docletPath));
+
+        // debug support
+        //        javadoc.createArg().setLine("-J-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=*:8000");
+
+        javadoc.execute();
+    }
+
+    /**
+     * Runs javadoc inside this JVM, which saves the JVM startup.
+     *
+     * <p>
+     * The doclet is loaded in its own class loader, so that it sees the same libraries it would see
+     * in a forked javadoc, and not whatever else happens to be in the Maven class realm.
+     *
+     * <p>
+     * Like the forked javadoc, this tolerates errors javadoc reports about the sources, as long as the doclet
+     * still ran to completion, which it tells by writing the given metrics file.
+     */
+    private void inProcessJavadoc(
+            DocumentationTool tool,
+            List<File> sourceRoots,
+            List<File> sources,
+            List<File> classpath,
+            boolean strict,
+            List<File> docletPath,
+            List<String> docletParams,
+            File metricsFile)
+            throws MojoExecutionException {
+        try (StandardJavaFileManager fileManager = tool.getStandardFileManager(null, null, null);
+                URLClassLoader loader = docletClassLoader(docletPath)) {
+            // the rest of the sources are still needed to resolve and document superclasses
+            fileManager.setLocation(StandardLocation.SOURCE_PATH, sourceRoots);
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+
+            Class<?> doclet = loader.loadClass(TagXMLDoclet.class.getName());
+            DocumentationTool.DocumentationTask task = tool.getTask(
+                    null, fileManager, null, doclet, docletParams, fileManager.getJavaFileObjectsFromFiles(sources));
+            if (!task.call()) {
+                if (strict || !metricsFile.exists()) {
+                    throw new MojoExecutionException("javadoc failed to generate the taglib");
+                }
+                getLog().warn("javadoc reported errors; the taglib may be incomplete");
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new MojoExecutionException("Failed to run javadoc", e);
+        }
+    }
+
+    /**
+     * Creates a class loader for the doclet, to be closed once javadoc is done, so that the jars aren't held
+     * open or locked past this execution.
+     */
+    private static URLClassLoader docletClassLoader(List<File> docletPath) throws MalformedURLException {
+        URL[] urls = new URL[docletPath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = docletPath.get(i).toURI().toURL();
+        }
+        // the system class loader gives access to the jdk.javadoc module and not much else
+        return new URLClassLoader(urls, ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * Computes the classpath to run the doclet with, which is this plugin and its dependencies.
+     */
+    private List<File> docletPath() throws MojoExecutionException {
+        List<File> r = new ArrayList<>();
+        for (Artifact a : pluginArtifacts) {
+            r.add(a.getFile());
+        }
+        r.add(self());
+        return r;
+    }
 
-        Path docletPath = makePath(p, pluginArtifacts);
+    /**
+     * Locates the jar of this plugin. This is computed only once per session, and shared by all modules.
+     */
+    private File self() throws MojoExecutionException {
+        SessionData data = session.getRepositorySession().getData();
+        String key = JellydocMojo.class.getName() + ".self:" + pluginVersion;
+        File self = (File) data.get(key);
+        if (self == null) {
+            self = locateSelf();
+            data.set(key, self);
+        }
+        return self;
+    }
+
+    /**
+     * This plugin is normally where this very class was loaded from. Only if that can't be determined,
+     * it's resolved through the repository system.
+     */
+    private File locateSelf() throws MojoExecutionException {
+        CodeSource cs = JellydocMojo.class.getProtectionDomain().getCodeSource();
+        if (cs != null && cs.getLocation() != null && cs.getLocation().getProtocol().equals("file")) {
+            try {
+                return new File(cs.getLocation().toURI());
+            } catch (URISyntaxException e) {
+                getLog().debug("Failed to locate the plugin from " + cs.getLocation(), e);
+            }
+        }
 
         ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
         buildingRequest.setRemoteRepositories(project.getRemoteArtifactRepositories());
@@ -161,65 +726,263 @@ public class JellydocMojo extends AbstractMojo implements MavenMultiPageReport {
         Artifact artifact = factory.createArtifact(
                 "io.jenkins.tools.maven", "jellydoc-maven-plugin", pluginVersion, null, "maven-plugin");
         ArtifactRequest request = new ArtifactRequest(RepositoryUtils.toArtifact(artifact), remoteRepositories, null);
-        Artifact self;
         try {
-            self = RepositoryUtils.toArtifact(repositorySystem
-                    .resolveArtifact(buildingRequest.getRepositorySession(), request)
-                    .getArtifact());
+            return RepositoryUtils.toArtifact(repositorySystem
+                            .resolveArtifact(buildingRequest.getRepositorySession(), request)
+                            .getArtifact())
+                    .getFile();
         } catch (ArtifactResolutionException e) {
             throw new MojoExecutionException("Failed to resolve plugin from within itself", e);
         }
-        docletPath.createPathElement().setLocation(self.getFile());
-        d.setPath(docletPath);
+    }
 
-        // debug support
-        //        javadoc.createArg().setLine("-J-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=*:8000");
+    /**
+     * The classpath javadoc needs to resolve the types used in the sources.
+     */
+    private List<File> classpath() {
+        List<File> r = new ArrayList<>();
+        for (Artifact a : project.getArtifacts()) {
+            r.add(a.getFile());
+        }
+        return r;
+    }
 
-        javadoc.execute();
+    /**
+     * Lists the packages whose compiled classes include tags, going by the class files alone.
+     *
+     * @return null if that can't be told, as the classes are missing or older than the sources.
+     */
+    private Set<String> tagPackages(Map<String, List<File>> packages) throws MojoExecutionException {
+        if (!scanClasses) {
+            return null;
+        }
+        File classesDir = new File(project.getBuild().getOutputDirectory());
+        if (!classesUpToDate(packages, classesDir)) {
+            getLog().debug("Classes are missing or out of date; not scanning them");
+            return null;
+        }
 
-        generateSchema();
+        try (ClassFileScanner scanner = new ClassFileScanner(scanClasspath(classesDir))) {
+            Set<String> r = scanner.tagPackages(classesDir);
+            getLog().info("Found tags in " + r.size() + " out of " + packages.size() + " packages");
+            return r;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to scan " + classesDir, e);
+        }
+    }
+
+    /**
+     * Computes the part of the classpath javadoc needs for the given sources, for {@link #minimalClasspath}.
+     *
+     * @return null if that can't be told, as the classes are missing or older than the sources.
+     */
+    private List<File> minimalClasspath(List<File> sourceRoots, Map<String, List<File>> packages, List<File> sources)
+            throws MojoExecutionException {
+        File classesDir = new File(project.getBuild().getOutputDirectory());
+        if (!classesUpToDate(packages, classesDir)) {
+            getLog().debug("Classes are missing or out of date; using the whole classpath");
+            return null;
+        }
+
+        try (ClassFileScanner scanner = new ClassFileScanner(scanClasspath(classesDir))) {
+            List<File> classpath = classpath();
+            List<File> r = new JavadocClasspath(sourceRoots, classesDir, scanner).compute(sources, classpath);
+            getLog().info("javadoc needs " + r.size() + " out of " + classpath.size() + " classpath entries");
+            return r;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to scan " + classesDir, e);
+        }
+    }
+
+    /**
+     * Checks if every source file has been compiled since it was last modified.
+     */
+    private static boolean classesUpToDate(Map<String, List<File>> packages, File classesDir) {
+        for (Map.Entry<String, List<File>> e : packages.entrySet()) {
+            File dir = new File(classesDir, e.getKey().replace('.', '/'));
+            for (File source : e.getValue()) {
+                String name = source.getName();
+                if (name.endsWith("-info.java")) {
+                    continue;
+                }
+                File classFile = new File(dir, name.substring(0, name.length() - 5) + ".class");
+                if (classFile.lastModified() < source.lastModified()) { // 0 if missing
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Where {@link ClassFileScanner} looks for the supertypes of the classes in the given directory.
+     */
+    private List<File> scanClasspath(File classesDir) {
+        List<File> r = new ArrayList<>();
+        r.add(classesDir);
+        r.addAll(classpath());
+        return r;
+    }
+
+    /**
+     * Groups the Java source files by their packages.
+     */
+    private static Map<String, List<File>> javaSources(List<File> sourceRoots) {
+        Map<String, List<File>> r = new TreeMap<>();
+        for (File root : sourceRoots) {
+            for (File f : BuildState.listFiles(root)) {
+                if (f.getName().endsWith(".java")) {
+                    String pkg = TaglibFragments.packageOf(root, f);
+                    r.computeIfAbsent(pkg, k -> new ArrayList<>()).add(f);
+                }
+            }
+        }
+        return r;
     }
 
     public void generateSchema() throws MojoExecutionException {
+        TaglibFragments fragments = new TaglibFragments(new File(targetDir(), TaglibFragments.DIR_NAME));
+        if (!fragments.getDir().exists()) {
+            // taglib.xml wasn't produced by us
+            try {
+                fragments = TaglibFragments.split(
+                        new File(targetDir(), "taglib.xml"), new File(targetDir(), "jellydoc-split"));
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to generate schema", e);
+            }
+        }
+        generateSchema(fragments);
+    }
+
+    /**
+     * Generates an XML schema from each library fragment. Libraries are transformed straight from their own
+     * small files, so the memory needed doesn't grow with the size of the whole {@code taglib.xml}.
+     */
+    void generateSchema(TaglibFragments fragments) throws MojoExecutionException {
+        try (Metrics.Phase p = metrics().start("schema")) {
+            generateSchema(fragments, p);
+        }
+    }
+
+    private void generateSchema(TaglibFragments fragments, Metrics.Phase phase) throws MojoExecutionException {
+        getLog().info("Generating XML Schema");
+        // schemas of libraries that no longer exist would otherwise be attached by the next up-to-date run
+        for (File stale : listSchemas()) {
+            stale.delete();
+        }
+
+        Templates templates;
+        Map<String, File> libraries = new LinkedHashMap<>();
         try {
-            getLog().info("Generating XML Schema");
             TransformerFactory tf = TransformerFactory.newInstance();
-            Templates templates = tf.newTemplates(new StreamSource(
+            templates = tf.newTemplates(new StreamSource(
                     JellydocMojo.class.getResource("xsdgen.xsl").toExternalForm()));
-            File source = new File(project.getBasedir(), "target/taglib.xml");
-            for (Node node : new SAXReader().read(source).selectNodes("/tags/library")) {
-                Element lib = (Element) node;
-                String prefix = lib.attributeValue("prefix");
+            for (File lib : fragments.libraries()) {
+                String prefix = TaglibFragments.prefixOf(lib);
+                // libraries with the same prefix go to the same file, of which the last one used to win
+                libraries.remove(prefix);
+                libraries.put(prefix, lib);
+            }
+        } catch (TransformerException | IOException e) {
+            throw new MojoExecutionException("Failed to generate schema", e);
+        }
 
-                File schema = new File(project.getBasedir(), "target/taglib-" + prefix + ".xsd");
+        // Templates is thread-safe, but each task needs its own Transformer
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(libraries.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            Map<String, Future<File>> schemas = new LinkedHashMap<>();
+            for (Map.Entry<String, File> e : libraries.entrySet()) {
+                schemas.put(e.getKey(), pool.submit(phase.track(() -> {
+                    File schema = new File(targetDir(), "taglib-" + e.getKey() + ".xsd");
+                    try (FileOutputStream out = new FileOutputStream(schema)) {
+                        templates.newTransformer().transform(new StreamSource(e.getValue()), new StreamResult(out));
+                    }
+                    return schema;
+                })));
+            }
 
-                lib.getParent().remove(lib); // make it on its own
-                DefaultDocument newDoc = new DefaultDocument();
-                newDoc.setRootElement(lib);
+            // attach in the library order, regardless of which one finished first
+            for (Map.Entry<String, Future<File>> e : schemas.entrySet()) {
+                File schema = e.getValue().get();
+                if (attach) {
+                    helper.attachArtifact(project, "xsd", "taglib-" + e.getKey(), schema);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Failed to generate schema", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while generating schema", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                templates
-                        .newTransformer()
-                        .transform(new DocumentSource(newDoc), new StreamResult(new FileOutputStream(schema)));
+    /**
+     * Attaches the schemas generated by an earlier run.
+     */
+    private void attachSchemas() {
+        if (!attach) {
+            return;
+        }
+        for (File schema : listSchemas()) {
+            String name = schema.getName();
+            helper.attachArtifact(project, "xsd", name.substring(0, name.length() - ".xsd".length()), schema);
+        }
+    }
 
-                helper.attachArtifact(project, "xsd", "taglib-" + prefix, schema);
-            }
-        } catch (TransformerException | FileNotFoundException | DocumentException e) {
-            throw new MojoExecutionException("Failed to generate schema", e);
+    /**
+     * Lists {@code target/taglib-*.xsd} in a stable order.
+     */
+    List<File> listSchemas() {
+        File[] schemas = targetDir().listFiles((dir, name) -> name.startsWith("taglib-") && name.endsWith(".xsd"));
+        if (schemas == null) {
+            return List.of();
         }
+        Arrays.sort(schemas);
+        return Arrays.asList(schemas);
     }
 
-    private Path makePath(Project p, Collection<Artifact> artifacts) {
-        Path docletPath = new Path(p);
-        for (Artifact artifact : artifacts) {
-            docletPath.createPathElement().setLocation(artifact.getFile());
+    private Path makePath(Project p, Collection<File> files) {
+        Path path = new Path(p);
+        for (File f : files) {
+            path.createPathElement().setLocation(f);
         }
-        return docletPath;
+        return path;
     }
 
-    private File targetDir() {
+    /**
+     * Where the outputs go.
+     */
+    File targetDir() {
         return new File(project.getBasedir(), "target");
     }
 
+    /**
+     * Creates a copy of this mojo that works on the given module instead.
+     */
+    JellydocMojo forModule(MavenProject module) {
+        JellydocMojo m = new JellydocMojo();
+        m.setLog(getLog());
+        m.project = module;
+        m.session = session;
+        m.pluginArtifacts = pluginArtifacts;
+        m.pluginVersion = pluginVersion;
+        m.factory = factory;
+        m.repositorySystem = repositorySystem;
+        m.helper = helper;
+        m.incremental = incremental;
+        m.fork = fork;
+        m.scanClasses = scanClasses;
+        m.schemaOnly = schemaOnly;
+        m.minimalClasspath = minimalClasspath;
+        m.processorOutput = processorOutput;
+        m.cacheDirectory = cacheDirectory;
+        m.cacheSize = cacheSize;
+        return m;
+    }
+
     private void setParam(Javadoc.DocletInfo d, String name, String value) {
         Javadoc.DocletParam dp = d.createParam();
         dp.setName(name);
@@ -257,15 +1020,50 @@ public class JellydocMojo extends AbstractMojo implements MavenMultiPageReport {
     @Override
     public void generate(Sink sink, SinkFactory sinkFactory, Locale locale) throws MavenReportException {
         try {
-            execute();
+            if (isGeneratedInThisSession()) {
+                getLog().info("Reusing the Jelly taglib generated earlier in this build");
+            } else {
+                execute();
+            }
+        } catch (AbstractMojoExecutionException e) {
+            throw new MavenReportException("Failed to generate report", e);
+        }
+        renderReport(sink, sinkFactory);
+    }
+
+    /**
+     * Renders the report from what {@link #execute()} left in {@link #targetDir()}.
+     */
+    void renderReport(Sink sink, SinkFactory sinkFactory) throws MavenReportException {
+        Metrics metrics = metrics();
+        try (Metrics.Phase phase = metrics.start("report")) {
             File libFile = new File(targetDir(), "taglib.xml");
-            if (libFile.exists()) {
-                new ReferenceRenderer(sink, libFile.toURI().toURL()).render();
-                FileUtils.copyDirectory(targetDir(), new File(targetDir(), "site"), "taglib-*.xsd", null);
+            TaglibFragments fragments = new TaglibFragments(new File(targetDir(), TaglibFragments.DIR_NAME));
+            ReferenceRenderer renderer;
+            if (fragments.getDir().exists()) {
+                // render one library at a time, instead of loading the whole taglib.xml
+                renderer = new ReferenceRenderer(sink, fragments.libraries());
+            } else if (libFile.exists()) {
+                renderer = new ReferenceRenderer(sink, libFile.toURI().toURL());
+            } else {
+                return;
+            }
+
+            File outputDir = getReportOutputDirectory() != null
+                    ? getReportOutputDirectory()
+                    : new File(project.getBasedir(), "target/site");
+            if (sinkFactory != null) {
+                // one page per library, instead of one page that browsers choke on
+                renderer.renderPages(sinkFactory, outputDir, getOutputName(), phase);
+            } else {
+                renderer.render();
             }
-        } catch (AbstractMojoExecutionException | DocumentException | IOException e) {
+            // the report links to the schemas next to it
+            FileUtils.copyDirectory(targetDir(), outputDir, "taglib-*.xsd", null);
+        } catch (DocumentException | IOException e) {
             throw new MavenReportException("Failed to generate report", e);
         }
+        saveMetrics(metrics);
     }
 
     @Override
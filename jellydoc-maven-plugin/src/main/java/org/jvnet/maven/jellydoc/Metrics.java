@@ -0,0 +1,353 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Wall-clock time, CPU time and allocation of the phases of a jellydoc run, along with what the doclet
+ * reports about the libraries and tags it went through.
+ *
+ * <p>
+ * Written to {@code target/jellydoc-metrics.json}, so that it can be charted across builds.
+ * CPU time and allocation are counted on the thread that runs the phase, plus the pool threads
+ * whose tasks are wrapped by {@link Phase#track(Callable)}. They are left out where the JVM can't measure them.
+ */
+final class Metrics {
+    static final String FILE_NAME = "jellydoc-metrics.json";
+
+    /**
+     * What {@link TagXMLDoclet} writes when given {@code -metrics}, as it may well run in another JVM.
+     */
+    static final String DOCLET_FILE_NAME = "jellydoc-doclet-metrics.properties";
+
+    private static final int SLOWEST_TAGS = 10;
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /**
+     * Number of tags and attributes, by library.
+     */
+    private final Map<String, long[]> libraries = new TreeMap<>();
+
+    /**
+     * Tag class names and the nanoseconds the doclet spent on them, slowest first.
+     */
+    private final List<Map.Entry<String, Long>> slowestTags = new ArrayList<>();
+
+    /**
+     * Peak heap of the JVM that ran the doclet. Only telling when javadoc was forked, as it's otherwise
+     * the peak of this JVM since it started.
+     */
+    private long docletPeakHeap = -1;
+
+    /**
+     * Highest heap usage seen at the start and at the end of the phases, and of the tasks they track.
+     * The peak usage of the heap pools would be more accurate, but it can only be reset for the whole JVM,
+     * which other modules built at the same time, as with {@code -T} or the aggregate goal, share.
+     * Those modules still add to the heap usage seen here, so this tells the most when only one module is built.
+     */
+    private final AtomicLong heapHighWater = new AtomicLong(heapUsedBytes());
+
+    /**
+     * Sum of the peak usage of the heap pools since the JVM started.
+     * The pools may well peak at different times, so this is an upper bound of the actual peak.
+     */
+    static long peakHeapBytes() {
+        long r = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                r += pool.getPeakUsage().getUsed();
+            }
+        }
+        return r;
+    }
+
+    static long heapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static final class Phase implements AutoCloseable {
+        /**
+         * {@link Metrics#heapHighWater}, or null if heap usage isn't sampled.
+         */
+        private final AtomicLong heapHighWater;
+
+        private final long start = System.nanoTime();
+        private final long startCpu = cpuTime();
+        private final long startAllocated = allocatedBytes();
+        private long wallNanos;
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong allocated = new AtomicLong();
+
+        /**
+         * Number of things done in this phase, if that's of interest.
+         */
+        private long count = -1;
+
+        private Phase(AtomicLong heapHighWater) {
+            this.heapHighWater = heapHighWater;
+        }
+
+        private static Phase of(long wallNanos, long cpuNanos, long allocated, long count) {
+            Phase p = new Phase(null);
+            p.wallNanos = wallNanos;
+            p.cpuNanos.set(cpuNanos);
+            p.allocated.set(allocated);
+            p.count = count;
+            return p;
+        }
+
+        /**
+         * Counts the CPU time and allocation of the given task, which runs on another thread, to this phase.
+         */
+        <T> Callable<T> track(Callable<T> task) {
+            return () -> {
+                long cpu = cpuTime();
+                long bytes = allocatedBytes();
+                try {
+                    return task.call();
+                } finally {
+                    add(cpuNanos, cpu, cpuTime());
+                    add(allocated, bytes, allocatedBytes());
+                    sampleHeap();
+                }
+            };
+        }
+
+        long wallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * CPU time of this phase and the tasks it tracks, or -1 if not measurable.
+         */
+        long cpuNanos() {
+            return cpuNanos.get();
+        }
+
+        /**
+         * Bytes allocated by this phase and the tasks it tracks, or -1 if not measurable.
+         */
+        long allocated() {
+            return allocated.get();
+        }
+
+        @Override
+        public void close() {
+            wallNanos = System.nanoTime() - start;
+            add(cpuNanos, startCpu, cpuTime());
+            add(allocated, startAllocated, allocatedBytes());
+            sampleHeap();
+        }
+
+        private void sampleHeap() {
+            if (heapHighWater != null) {
+                heapHighWater.accumulateAndGet(heapUsedBytes(), Math::max);
+            }
+        }
+
+        private static void add(AtomicLong total, long before, long after) {
+            if (before < 0 || after < 0) {
+                total.set(-1); // not measurable
+            } else if (total.get() >= 0) {
+                total.addAndGet(after - before);
+            }
+        }
+    }
+
+    /**
+     * Starts measuring a phase, which ends when the returned object is closed.
+     */
+    Phase start(String name) {
+        heapHighWater.accumulateAndGet(heapUsedBytes(), Math::max);
+        Phase p = new Phase(heapHighWater);
+        phases.put(name, p);
+        return p;
+    }
+
+    /**
+     * Folds in what the doclet wrote, if anything.
+     */
+    void readDocletMetrics(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+
+        phases.put(
+                "doclet",
+                Phase.of(
+                        number(props, "doclet.wallNanos"),
+                        number(props, "doclet.cpuNanos"),
+                        number(props, "doclet.allocatedBytes"),
+                        -1));
+        docletPeakHeap = number(props, "doclet.peakHeapBytes");
+        phases.put("htmlParsing", Phase.of(number(props, "html.nanos"), -1, -1, number(props, "html.count")));
+
+        List<Map.Entry<String, Long>> tags = new ArrayList<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("library.")) {
+                int idx = key.lastIndexOf('.');
+                long[] counts = libraries.computeIfAbsent(key.substring(8, idx), k -> new long[2]);
+                counts[key.endsWith(".tags") ? 0 : 1] = number(props, key);
+            } else if (key.startsWith("tag.")) {
+                tags.add(Map.entry(key.substring(4), number(props, key)));
+            }
+        }
+        tags.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        slowestTags.clear();
+        slowestTags.addAll(tags.subList(0, Math.min(SLOWEST_TAGS, tags.size())));
+    }
+
+    private static long number(Properties props, String key) {
+        String v = props.getProperty(key);
+        return v == null ? -1 : Long.parseLong(v);
+    }
+
+    void log(Log log) {
+        for (Map.Entry<String, Phase> e : phases.entrySet()) {
+            Phase p = e.getValue();
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "%-12s %8.1f ms", e.getKey(), ms(p.wallNanos)));
+            if (p.cpuNanos.get() >= 0) {
+                sb.append(String.format(Locale.ROOT, ", CPU %8.1f ms", ms(p.cpuNanos.get())));
+            }
+            if (p.allocated.get() >= 0) {
+                sb.append(String.format(Locale.ROOT, ", %,d KB allocated", p.allocated.get() / 1024));
+            }
+            if (p.count >= 0) {
+                sb.append(String.format(Locale.ROOT, ", %,d times", p.count));
+            }
+            log.info(sb.toString());
+        }
+        log.info(String.format(Locale.ROOT, "Peak heap: %,d MB", heapHighWater.get() / (1024 * 1024)));
+        if (!slowestTags.isEmpty()) {
+            Map.Entry<String, Long> slowest = slowestTags.get(0);
+            log.info(String.format(Locale.ROOT, "Slowest tag: %s, %.1f ms", slowest.getKey(), ms(slowest.getValue())));
+        }
+    }
+
+    void save(File file) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"peakHeapBytes\": ").append(heapHighWater.get()).append(",\n");
+        if (docletPeakHeap >= 0) {
+            sb.append("  \"docletPeakHeapBytes\": ").append(docletPeakHeap).append(",\n");
+        }
+        sb.append("  \"phases\": {");
+        String sep = "\n";
+        for (Map.Entry<String, Phase> e : phases.entrySet()) {
+            Phase p = e.getValue();
+            sb.append(sep).append("    ").append(quote(e.getKey())).append(": {");
+            sb.append("\"wallMillis\": ").append(millis(p.wallNanos));
+            if (p.cpuNanos.get() >= 0) {
+                sb.append(", \"cpuMillis\": ").append(millis(p.cpuNanos.get()));
+            }
+            if (p.allocated.get() >= 0) {
+                sb.append(", \"allocatedBytes\": ").append(p.allocated.get());
+            }
+            if (p.count >= 0) {
+                sb.append(", \"count\": ").append(p.count);
+            }
+            sb.append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"libraries\": {");
+        sep = "\n";
+        for (Map.Entry<String, long[]> e : libraries.entrySet()) {
+            sb.append(sep).append("    ").append(quote(e.getKey()));
+            sb.append(": {\"tags\": ").append(e.getValue()[0]);
+            sb.append(", \"attributes\": ").append(e.getValue()[1]).append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"slowestTags\": [");
+        sep = "\n";
+        for (Map.Entry<String, Long> e : slowestTags) {
+            sb.append(sep).append("    {\"className\": ").append(quote(e.getKey()));
+            sb.append(", \"millis\": ").append(millis(e.getValue())).append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  ]\n}\n");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", ms(nanos));
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * CPU time of the current thread in nanoseconds, or -1 if the JVM can't tell.
+     */
+    static long cpuTime() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM can't tell.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Directory of jellydoc outputs, keyed by {@link BuildState#portableDigest}, that can be shared by any number
+ * of workspaces on the same machine.
+ *
+ * <p>
+ * Every entry is a directory named after its key, which is put in place in one atomic rename once complete,
+ * so that concurrent builds never see a partial entry. Files are hard-linked when the file system allows,
+ * which is safe because jellydoc replaces its outputs rather than writing into them. Entries are touched
+ * whenever they are used, and the least recently used ones are evicted once the cache grows beyond its size limit.
+ */
+final class OutputCache {
+    private static final String TMP_PREFIX = "tmp-";
+
+    private final File dir;
+    private final long maxBytes;
+
+    OutputCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return dir.toString();
+    }
+
+    /**
+     * Puts the outputs stored under the given key into the given directory, replacing what's there.
+     *
+     * @return the files restored, or null if there's no such entry.
+     */
+    Set<File> restore(String key, File targetDir) throws IOException {
+        File entry = new File(dir, key);
+        if (!entry.isDirectory()) {
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        targetDir.mkdirs();
+        Set<File> r = new HashSet<>();
+        for (File f : BuildState.listFiles(entry)) {
+            Path dst = targetDir.toPath().resolve(entry.toPath().relativize(f.toPath()));
+            Files.createDirectories(dst.getParent());
+            link(f.toPath(), dst);
+            r.add(dst.toFile());
+        }
+        return r;
+    }
+
+    /**
+     * Stores the given files and directories of the given directory under the given key,
+     * unless someone else has already done so.
+     */
+    void store(String key, File targetDir, List<File> outputs) throws IOException {
+        File entry = new File(dir, key);
+        if (entry.isDirectory()) {
+            return;
+        }
+        dir.mkdirs();
+        Path tmp = new File(dir, TMP_PREFIX + UUID.randomUUID()).toPath();
+        try {
+            for (File output : outputs) {
+                List<File> files = output.isDirectory() ? BuildState.listFiles(output) : List.of(output);
+                for (File f : files) {
+                    Path dst = tmp.resolve(targetDir.toPath().relativize(f.toPath()));
+                    Files.createDirectories(dst.getParent());
+                    link(f.toPath(), dst);
+                }
+            }
+            Files.move(tmp, entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (!entry.isDirectory()) {
+                throw e;
+            }
+            // another build stored the same outputs in the meantime
+        } finally {
+            delete(tmp.toFile());
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size limit.
+     */
+    void evict() throws IOException {
+        File[] entries = dir.listFiles(f -> f.isDirectory() && !f.getName().startsWith(TMP_PREFIX));
+        if (entries == null) {
+            return;
+        }
+        List<File> lru = new ArrayList<>(List.of(entries));
+        lru.sort(Comparator.comparingLong(File::lastModified).reversed());
+        long total = 0;
+        for (File entry : lru) {
+            long size = 0;
+            for (File f : BuildState.listFiles(entry)) {
+                size += f.length();
+            }
+            total += size;
+            if (total > maxBytes) {
+                // out of the way first, so that no one restores from an entry that's half deleted
+                File doomed = new File(dir, TMP_PREFIX + UUID.randomUUID());
+                if (entry.renameTo(doomed)) {
+                    delete(doomed);
+                }
+                total -= size;
+            }
+        }
+    }
+
+    private static void link(Path src, Path dst) throws IOException {
+        Files.deleteIfExists(dst);
+        try {
+            Files.createLink(dst, src);
+        } catch (IOException | UnsupportedOperationException e) {
+            // such as across file systems
+            Files.copy(src, dst, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
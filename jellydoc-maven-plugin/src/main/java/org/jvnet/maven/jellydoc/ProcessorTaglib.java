@@ -0,0 +1,234 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.output.StreamSerializer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.namespace.QName;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.SAXException;
+
+/**
+ * Builds the tag library fragments from what the processor of {@code jellydoc-processor} recorded during
+ * the compilation, without javadoc.
+ *
+ * <p>
+ * Doc comments are recorded the way {@link TagXMLDoclet} renders them, and go through the same HTML parser.
+ * Attributes inherited from classes the processor didn't see, such as those in other jars, are taken from
+ * the class files, without documentation.
+ */
+final class ProcessorTaglib {
+    private final File classesDir;
+    private final ClassFileScanner scanner;
+    private final ClassFileTaglib classFiles;
+
+    /**
+     * What the processor recorded, keyed by the class or package name.
+     */
+    private final Map<String, Element> classes = new TreeMap<>();
+
+    private final Map<String, Element> packages = new HashMap<>();
+
+    private final Map<String, List<AttributeRecord>> attributes = new HashMap<>();
+
+    ProcessorTaglib(File classesDir, ClassFileScanner scanner) {
+        this.classesDir = classesDir;
+        this.scanner = scanner;
+        this.classFiles = new ClassFileTaglib(scanner);
+    }
+
+    /**
+     * Where the processor writes to, relative to the class output directory.
+     */
+    static final String DIR = "META-INF/jellydoc/";
+
+    static File dir(File classesDir) {
+        return new File(classesDir, DIR);
+    }
+
+    /**
+     * Writes a fragment for every package that has tags.
+     *
+     * @return the number of fragments written.
+     */
+    int write(TaglibFragments fragments) throws IOException, SAXException {
+        try {
+            return doWrite(fragments);
+        } finally {
+            TagXMLDoclet.HtmlParser.release();
+        }
+    }
+
+    private int doWrite(TaglibFragments fragments) throws IOException, SAXException {
+        load();
+
+        Map<String, List<String>> tagsByPackage = new TreeMap<>();
+        for (String name : classes.keySet()) {
+            if (Boolean.TRUE.equals(scanner.isTag(name.replace('.', '/')))) {
+                int idx = name.lastIndexOf('.');
+                tagsByPackage.computeIfAbsent(idx < 0 ? "" : name.substring(0, idx), k -> new ArrayList<>()).add(name);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> e : tagsByPackage.entrySet()) {
+            try (OutputStream out = new FileOutputStream(fragments.xml(e.getKey()))) {
+                Library library = TXW.create(new QName("library"), Library.class, new StreamSerializer(out));
+                libraryXML(e.getKey(), e.getValue(), library);
+                library.commit();
+            }
+        }
+        return tagsByPackage.size();
+    }
+
+    private void load() throws IOException {
+        File[] files = dir(classesDir).listFiles((d, name) -> name.endsWith(".xml"));
+        if (files == null) {
+            return;
+        }
+        SAXReader reader = new SAXReader();
+        for (File f : files) {
+            Element root;
+            try {
+                Document doc = reader.read(f);
+                root = doc.getRootElement();
+            } catch (DocumentException e) {
+                throw new IOException("Failed to parse " + f, e);
+            }
+            String name = root.attributeValue("name");
+            if (root.getName().equals("package")) {
+                packages.put(name, root);
+            } else if (new File(classesDir, name.replace('.', '/') + ".class").exists()) {
+                // otherwise the class was deleted since
+                classes.put(name, root);
+            }
+        }
+    }
+
+    private void libraryXML(String pkg, List<String> tags, Library library) throws IOException, SAXException {
+        library.name(pkg);
+        String prefix = pkg.substring(pkg.lastIndexOf('.') + 1);
+        library.prefix(prefix);
+
+        Element info = packages.get(pkg);
+        String uri = info != null ? info.attributeValue("uri") : null;
+        library.uri(uri != null ? ClassFileTaglib.quote(uri) : "jelly:" + prefix);
+        docXML(info, library);
+
+        for (String name : tags) {
+            Element c = classes.get(name);
+            if (c.attributeValue("abstract") != null) {
+                continue;
+            }
+            Tag tag = library.tag();
+            String className = name.substring(name.lastIndexOf('.') + 1);
+            tag.className(className);
+            tag.name(ClassFileTaglib.tagName(className));
+            if (c.attributeValue("noContent") != null) {
+                tag.noContent(true);
+            }
+            docXML(c, tag);
+
+            for (AttributeRecord a : attributesOf(name)) {
+                Attribute att = tag.attribute();
+                att.name(a.name);
+                att.type(a.type);
+                if (a.required) {
+                    att.use("required");
+                }
+                docXML(a.doc, att);
+            }
+        }
+    }
+
+    private static final class AttributeRecord {
+        private final String name;
+        private final String type;
+        private final boolean required;
+        /**
+         * The recorded attribute, or null if it comes from a class file.
+         */
+        private final Element doc;
+
+        AttributeRecord(String name, String type, boolean required, Element doc) {
+            this.name = name;
+            this.type = type;
+            this.required = required;
+            this.doc = doc;
+        }
+    }
+
+    /**
+     * Lists the attributes of the given class, including inherited ones.
+     */
+    private List<AttributeRecord> attributesOf(String className) throws IOException {
+        List<AttributeRecord> r = attributes.get(className);
+        if (r == null) {
+            r = new ArrayList<>();
+            Element c = classes.get(className);
+            if (c != null) {
+                for (Element a : c.elements("attribute")) {
+                    r.add(new AttributeRecord(
+                            a.attributeValue("name"),
+                            a.attributeValue("type"),
+                            a.attributeValue("required") != null,
+                            a));
+                }
+                String base = c.attributeValue("superclass");
+                if (base != null) {
+                    r.addAll(attributesOf(base));
+                }
+            } else {
+                for (ClassFileTaglib.AttributeInfo a : classFiles.attributesOf(className.replace('.', '/'))) {
+                    r.add(new AttributeRecord(a.name, a.type, a.required, null));
+                }
+            }
+            attributes.put(className, r);
+        }
+        return r;
+    }
+
+    /**
+     * Writes the doc comment recorded in the given element, if any.
+     */
+    private void docXML(Element recorded, Item w) throws SAXException {
+        Element doc = recorded != null ? recorded.element("doc") : null;
+        if (doc == null) {
+            w.doc();
+            return;
+        }
+        DocContent content = new DocContent(doc.elementText("body"), ProcessorTaglib::parseHTML);
+        for (Element tag : doc.elements("tag")) {
+            content.addTag(tag.attributeValue("name") + "tag", tag.getText());
+        }
+        content.write(w);
+    }
+
+    private static void parseHTML(String text, List<Object> body) throws SAXException {
+        TagXMLDoclet.HtmlParser.parse(text, body, TagXMLDoclet::isDocElement);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package org.jvnet.maven.jellydoc;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
@@ -22,13 +26,24 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import net.java.textilej.parser.MarkupParser;
 import net.java.textilej.parser.builder.HtmlDocumentBuilder;
 import net.java.textilej.parser.markup.confluence.ConfluenceDialect;
 import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkFactory;
 import org.apache.maven.reporting.AbstractMavenReportRenderer;
-import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
 import org.dom4j.io.SAXReader;
@@ -39,51 +54,241 @@ import org.dom4j.io.SAXReader;
  * @author Kohsuke Kawaguchi
  */
 public class ReferenceRenderer extends AbstractMavenReportRenderer {
-    private final Document taglibXml;
+    /**
+     * Libraries sorted by name.
+     */
+    private final List<LibraryIndex> libraries;
+
+    private final String title;
+
+    /**
+     * True if this renders the page of one library, for {@link #renderPages(SinkFactory, File, String)}.
+     */
+    private final boolean libraryPage;
+
+    /**
+     * If non-null, the libraries are rendered into their own pages named after this,
+     * and this page only has the overview.
+     */
+    private String outputName;
+
+    private final MarkupParser parser = new MarkupParser(new ConfluenceDialect());
+
+    /**
+     * Rendered HTML keyed by the doc text. Every doc is rendered twice, in the summary and in the detail,
+     * and inherited attributes repeat the same doc over and over.
+     * Shared with the renderers of the library pages, which run concurrently.
+     */
+    private final Map<String, String> renderedDocs;
+
     private static final Comparator<Element> SORT_BY_NAME = Comparator.comparing(o -> o.attributeValue("name"));
 
+    private ReferenceRenderer(Sink sink, String title, List<LibraryIndex> libraries, Map<String, String> renderedDocs) {
+        super(sink);
+        this.title = title;
+        this.libraryPage = true;
+        this.libraries = libraries;
+        this.renderedDocs = renderedDocs;
+    }
+
     public ReferenceRenderer(Sink sink, URL taglibXml) throws DocumentException {
         super(sink);
-        this.taglibXml = new SAXReader().read(taglibXml);
+        this.title = TITLE;
+        this.libraryPage = false;
+        this.renderedDocs = new ConcurrentHashMap<>();
+        List<LibraryIndex> libraries = new ArrayList<>();
+        for (Element library : new SAXReader().read(taglibXml).getRootElement().elements("library")) {
+            libraries.add(new LibraryIndex(
+                    library.attributeValue("name"),
+                    library.attributeValue("prefix"),
+                    library.attributeValue("uri"),
+                    docText(library),
+                    null,
+                    library));
+        }
+        libraries.sort(Comparator.comparing(l -> l.name));
+        this.libraries = libraries;
+    }
+
+    /**
+     * Renders from per-library files, as opposed to one {@code taglib.xml}.
+     *
+     * <p>
+     * Only the names and the docs of the libraries are read up front, in one streaming pass over the beginning
+     * of each file. The tags of a library are loaded when its section is rendered, and are dropped right after,
+     * so the memory needed is bounded by the largest library, not by the whole taglib.
+     */
+    public ReferenceRenderer(Sink sink, List<File> libraryFiles) throws IOException {
+        super(sink);
+        this.title = TITLE;
+        this.libraryPage = false;
+        this.renderedDocs = new ConcurrentHashMap<>();
+        List<LibraryIndex> libraries = new ArrayList<>();
+        for (File f : libraryFiles) {
+            libraries.add(index(f));
+        }
+        libraries.sort(Comparator.comparing(l -> l.name));
+        this.libraries = libraries;
+    }
+
+    /**
+     * What's needed of a library to render the overview.
+     */
+    private static final class LibraryIndex {
+        final String name;
+        final String prefix;
+        final String uri;
+        final String doc;
+
+        /**
+         * Where the library is to be loaded from, unless it's already in {@link #element}.
+         */
+        final File file;
+
+        final Element element;
+
+        LibraryIndex(String name, String prefix, String uri, String doc, File file, Element element) {
+            this.name = name;
+            this.prefix = prefix;
+            this.uri = uri;
+            this.doc = doc;
+            this.file = file;
+            this.element = element;
+        }
+
+        Element load() {
+            if (element != null) {
+                return element;
+            }
+            try {
+                return new SAXReader().read(file).getRootElement();
+            } catch (DocumentException e) {
+                throw new IllegalStateException("Failed to read " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes and the doc of a library, and stops there without reading its tags.
+     */
+    private static LibraryIndex index(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            XMLStreamReader r = XMLInputFactory.newFactory().createXMLStreamReader(in);
+            try {
+                r.nextTag();
+                String name = r.getAttributeValue(null, "name");
+                String prefix = r.getAttributeValue(null, "prefix");
+                String uri = r.getAttributeValue(null, "uri");
+
+                // the doc comes first. like dom4j's Element.getText(), only its own text counts
+                StringBuilder doc = new StringBuilder();
+                if (r.nextTag() == XMLStreamConstants.START_ELEMENT && r.getLocalName().equals("doc")) {
+                    for (int depth = 1; depth > 0; ) {
+                        int e = r.next();
+                        if (e == XMLStreamConstants.START_ELEMENT) {
+                            depth++;
+                        } else if (e == XMLStreamConstants.END_ELEMENT) {
+                            depth--;
+                        } else if (r.isCharacters() && depth == 1) {
+                            doc.append(r.getText());
+                        }
+                    }
+                }
+                return new LibraryIndex(name, prefix, uri, doc.toString(), file, null);
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + file, e);
+        }
+    }
+
+    /**
+     * Renders every library into its own page, {@code <outputName>-<prefix>.html}, and then the overview
+     * into the sink given to the constructor.
+     *
+     * <p>
+     * The library pages are independent of each other, so they are rendered concurrently.
+     */
+    public void renderPages(SinkFactory sinkFactory, File outputDirectory, String outputName) throws IOException {
+        renderPages(sinkFactory, outputDirectory, outputName, null);
+    }
+
+    /**
+     * @param phase if non-null, the work on the pool threads is counted to it.
+     */
+    void renderPages(SinkFactory sinkFactory, File outputDirectory, String outputName, Metrics.Phase phase)
+            throws IOException {
+        this.outputName = outputName;
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(libraries.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<?>> pages = new ArrayList<>();
+            for (LibraryIndex library : libraries) {
+                Sink page = sinkFactory.createSink(outputDirectory, pageOf(library));
+                // each renderer has its own Confluence parser, which is not thread-safe
+                ReferenceRenderer r = new ReferenceRenderer(page, library.uri, List.of(library), renderedDocs);
+                Callable<Object> task = () -> {
+                    r.render();
+                    return null;
+                };
+                pages.add(pool.submit(phase != null ? phase.track(task) : task));
+            }
+            for (Future<?> page : pages) {
+                page.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to render the library pages", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering the library pages", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        render();
+    }
+
+    private String pageOf(LibraryIndex library) {
+        return outputName + "-" + library.prefix + ".html";
     }
 
     @Override
     public String getTitle() {
-        return "Jelly Taglib references";
+        return title;
     }
 
     @Override
     protected void renderBody() {
-        List<Element> libraries = sortByName(taglibXml.getRootElement().elements("library"));
+        if (!libraryPage) {
+            paragraph("The following Jelly tag libraries are defined in this project.");
+        }
 
-        paragraph("The following Jelly tag libraries are defined in this project.");
+        if (outputName != null) {
+            // the libraries are in their own pages
+            renderOverview();
+            return;
+        }
 
         if (libraries.size() > 1) {
-            startTable();
-            tableHeader(new String[] {"Namespace URI", "Description"});
-            for (Element library : libraries) {
-                sink.tableRow();
-                sink.tableCell();
-                sink.rawText(String.format(
-                        "<a href='#%s'>%s</a>", library.attributeValue("prefix"), library.attributeValue("uri")));
-                sink.tableCell_();
-                docCell(library);
-                sink.tableRow_();
-            }
-            endTable();
+            renderOverview();
         }
 
-        for (Element library : libraries) {
-            String prefix = library.attributeValue("prefix");
+        for (LibraryIndex index : libraries) {
+            Element library = index.load();
+            String prefix = index.prefix;
 
             anchor(prefix);
-            startSection(library.attributeValue("uri"));
+            startSection(index.uri);
             doc(library);
             paragraphHtml(
                     "This tag library is <a href='taglib-" + prefix + ".xsd'>also available as an XML Schema</a>");
-            renderSummaryTable(library, prefix);
 
-            for (Element tag : sortByName(library.elements("tag"))) {
+            List<Element> tags = sortByName(library.elements("tag"));
+            renderSummaryTable(tags, prefix);
+
+            for (Element tag : tags) {
                 renderTagReference(prefix, tag);
             }
 
@@ -91,18 +296,33 @@ public class ReferenceRenderer extends AbstractMavenReportRenderer {
         }
     }
 
+    private void renderOverview() {
+        startTable();
+        tableHeader(new String[] {"Namespace URI", "Description"});
+        for (LibraryIndex library : libraries) {
+            String href = outputName != null ? pageOf(library) : "#" + library.prefix;
+            sink.tableRow();
+            sink.tableCell();
+            sink.rawText(String.format("<a href='%s'>%s</a>", href, library.uri));
+            sink.tableCell_();
+            sink.tableCell();
+            sink.rawText(renderDocCached(library.doc));
+            sink.tableCell_();
+            sink.tableRow_();
+        }
+        endTable();
+    }
+
     private void paragraphHtml(String rawText) {
         sink.paragraph();
         sink.rawText(rawText);
         sink.paragraph_();
     }
 
-    private void renderSummaryTable(Element library, String prefix) {
+    private void renderSummaryTable(List<Element> tags, String prefix) {
         startTable();
         tableHeader(new String[] {"Tag Name", "Description"});
 
-        List<Element> tags = sortByName(library.elements("tag"));
-
         for (Element tag : tags) {
             sink.tableRow();
             sink.tableCell();
@@ -206,14 +426,29 @@ public class ReferenceRenderer extends AbstractMavenReportRenderer {
         sink.tableCell_();
     }
 
-    private String docXml(Element parent) {
+    String docXml(Element parent) {
+        return renderDocCached(docText(parent));
+    }
+
+    private String renderDocCached(String xml) {
+        // not computeIfAbsent, which would hold up other pages that happen to hit the same bin while rendering
+        String html = renderedDocs.get(xml);
+        if (html == null) {
+            html = renderDoc(xml);
+            renderedDocs.putIfAbsent(xml, html);
+        }
+        return html;
+    }
+
+    private static String docText(Element parent) {
         Element doc = parent.element("doc");
         // remove all javadoc tags that don't belong.
         doc.content().removeAll(doc.elements("authortag"));
-        String xml = doc.getText();
+        return doc.getText();
+    }
 
+    private String renderDoc(String xml) {
         StringWriter w = new StringWriter();
-        MarkupParser parser = new MarkupParser(new ConfluenceDialect());
         HtmlDocumentBuilder builder = new HtmlDocumentBuilder(w) {
             @Override
             public void lineBreak() {
@@ -227,5 +462,7 @@ public class ReferenceRenderer extends AbstractMavenReportRenderer {
         return w.toString();
     }
 
+    private static final String TITLE = "Jelly Taglib references";
+
     private static final Set<String> HIDDEN_ATTRIBUTES = new HashSet<>(Arrays.asList("escapeText", "trim"));
 }
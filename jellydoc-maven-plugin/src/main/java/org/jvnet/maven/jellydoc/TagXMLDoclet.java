@@ -15,28 +15,39 @@
  */
 package org.jvnet.maven.jellydoc;
 
-import com.sun.source.doctree.BlockTagTree;
 import com.sun.source.doctree.DocCommentTree;
-import com.sun.source.doctree.DocTree;
-import com.sun.source.doctree.LinkTree;
-import com.sun.source.doctree.LiteralTree;
-import com.sun.source.doctree.ReferenceTree;
 import com.sun.source.util.DocTrees;
+import com.sun.source.util.TreePath;
 import com.sun.xml.txw2.TXW;
 import com.sun.xml.txw2.TypedXmlWriter;
 import com.sun.xml.txw2.output.StreamSerializer;
 import java.beans.Introspector;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
@@ -49,11 +60,14 @@ import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.xml.namespace.QName;
 import jdk.javadoc.doclet.Doclet;
 import jdk.javadoc.doclet.DocletEnvironment;
 import jdk.javadoc.doclet.Reporter;
 import org.cyberneko.html.parsers.SAXParser;
+import org.jvnet.maven.jellydoc.annotation.DocComments;
 import org.jvnet.maven.jellydoc.annotation.NoContent;
 import org.jvnet.maven.jellydoc.annotation.Required;
 import org.jvnet.maven.jellydoc.annotation.TagLibUri;
@@ -74,20 +88,77 @@ import org.xml.sax.helpers.DefaultHandler;
 
 public class TagXMLDoclet implements Doclet {
 
+    private static final String TAG_CLASS = "org.apache.commons.jelly.Tag";
+
     private DocTrees docTrees;
+    private Types types;
     private Reporter reporter;
 
+    /**
+     * Erasure of {@code org.apache.commons.jelly.Tag}, or null if it's not on the classpath.
+     */
+    private TypeMirror tagType;
+
+    /**
+     * Memoizes {@link #isTag(TypeElement)} for the current {@link DocletEnvironment},
+     * so that deep tag hierarchies are only walked once.
+     */
+    private final Map<TypeElement, Boolean> tagTypes = new HashMap<>();
+
+    /**
+     * Memoizes {@link #attributesOf(TypeElement)} for the current {@link DocletEnvironment}.
+     */
+    private final Map<TypeElement, List<AttributeRecord>> attributes = new HashMap<>();
+
     private String targetFileName = null;
     private String encodingFormat;
 
+    /**
+     * If non-null, each tag library goes to its own fragment instead of {@link #targetFileName}.
+     */
+    private TaglibFragments fragments = null;
+
+    /**
+     * If non-null, where to write the numbers {@link Metrics} reads.
+     */
+    private File metricsFile = null;
+
+    /**
+     * Measures the run when {@link #metricsFile} is set, including the tasks run on the pool threads.
+     */
+    private Metrics.Phase phase = null;
+
+    /**
+     * Number of libraries written at once.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Time spent in, and number of calls to, the HTML parser.
+     */
+    private final LongAdder htmlNanos = new LongAdder();
+
+    private final LongAdder htmlCount = new LongAdder();
+
+    /**
+     * Number of tags and attributes by library, and the nanoseconds spent on each tag class,
+     * for {@link #metricsFile}.
+     */
+    private final Map<String, long[]> libraryCounts = new TreeMap<>();
+
+    private final Map<String, Long> tagNanos = new ConcurrentHashMap<>();
+
     private void main(DocletEnvironment root) throws Exception {
+        if (fragments != null) {
+            fragmentsXML(root);
+            return;
+        }
+
         File targetFile = new File(targetFileName);
         targetFile.getParentFile().mkdirs();
-        FileOutputStream writer = new FileOutputStream(targetFileName);
-        Tags tw = TXW.create(Tags.class, new StreamSerializer(writer));
-
-        javadocXML(root, tw);
-        tw.commit();
+        try (OutputStream writer = new FileOutputStream(targetFileName)) {
+            javadocXML(root, writer);
+        }
     }
 
     @Override
@@ -95,6 +166,15 @@ public class TagXMLDoclet implements Doclet {
         this.reporter = reporter;
     }
 
+    /**
+     * Reports progress through javadoc, rather than straight to the console.
+     */
+    private void note(String message) {
+        if (reporter != null) {
+            reporter.print(Diagnostic.Kind.NOTE, message);
+        }
+    }
+
     @Override
     public String getName() {
         return "TagXMLDoclet";
@@ -102,13 +182,35 @@ public class TagXMLDoclet implements Doclet {
 
     @Override
     public Set<? extends Option> getSupportedOptions() {
-        return Set.of(new Option("-d", "target directory", "<dir>", 1) {
-            @Override
-            public boolean process(String opt, List<String> args) {
-                targetFileName = args.get(0) + "/taglib.xml";
-                return true;
-            }
-        });
+        return Set.of(
+                new Option("-d", "target directory", "<dir>", 1) {
+                    @Override
+                    public boolean process(String opt, List<String> args) {
+                        targetFileName = args.get(0) + "/taglib.xml";
+                        return true;
+                    }
+                },
+                new Option("-fragments", "directory to write per-package fragments to", "<dir>", 1) {
+                    @Override
+                    public boolean process(String opt, List<String> args) {
+                        fragments = new TaglibFragments(new File(args.get(0)));
+                        return true;
+                    }
+                },
+                new Option("-metrics", "file to write timings and counts to", "<file>", 1) {
+                    @Override
+                    public boolean process(String opt, List<String> args) {
+                        metricsFile = new File(args.get(0));
+                        return true;
+                    }
+                },
+                new Option("-threads", "number of libraries to write at once", "<n>", 1) {
+                    @Override
+                    public boolean process(String opt, List<String> args) {
+                        threads = Math.max(1, Integer.parseInt(args.get(0)));
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -119,60 +221,195 @@ public class TagXMLDoclet implements Doclet {
     /**
      * Generates the xml for the tag libraries
      */
-    private void javadocXML(DocletEnvironment root, Tags tw) throws SAXException {
+    private void javadocXML(DocletEnvironment root, OutputStream out) throws SAXException, IOException {
+        setUp(root);
+
+        // the javac model isn't thread-safe, so everything needed from it is extracted first, one package at a time
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (PackageElement pkg : ElementFilter.packagesIn(root.getIncludedElements())) {
+            LibraryRecord library = packageXML(pkg);
+            if (library != null) {
+                // HTML parsing and serialization, which is where the time goes, then run concurrently
+                tasks.add(() -> {
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    library.write(buf);
+                    return buf.toByteArray();
+                });
+            }
+        }
+        List<byte[]> libraries = inParallel(tasks);
+
+        // and the results are spliced together in the package order
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><tags>".getBytes(StandardCharsets.UTF_8));
+        for (byte[] library : libraries) {
+            String xml = TaglibFragments.withoutDeclaration(new String(library, StandardCharsets.UTF_8));
+            out.write(xml.getBytes(StandardCharsets.UTF_8));
+        }
+        out.write("</tags>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs the given tasks on a fork/join pool, and returns their results in the same order.
+     * Their CPU time and allocation count towards {@link #phase}.
+     */
+    private <T> List<T> inParallel(List<Callable<T>> tasks) throws SAXException, IOException {
+        if (tasks.isEmpty()) {
+            return List.of();
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(tasks.size(), threads));
+        try {
+            List<ForkJoinTask<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(pool.submit(phase != null ? phase.track(task) : task));
+            }
+            List<T> r = new ArrayList<>();
+            for (ForkJoinTask<T> f : futures) {
+                r.add(f.get());
+            }
+            return r;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void setUp(DocletEnvironment root) {
         docTrees = root.getDocTrees();
+        types = root.getTypeUtils();
+        TypeElement tag = root.getElementUtils().getTypeElement(TAG_CLASS);
+        tagType = tag != null ? types.erasure(tag.asType()) : null;
+        tagTypes.clear();
+        attributes.clear();
+    }
+
+    /**
+     * Generates one fragment per tag library, and records what every package depends on,
+     * so that the caller can tell which fragments are affected by a change.
+     */
+    private void fragmentsXML(DocletEnvironment root) throws SAXException, IOException {
+        setUp(root);
 
-        // Generate for packages.
+        List<Callable<Void>> tasks = new ArrayList<>();
         for (PackageElement pkg : ElementFilter.packagesIn(root.getIncludedElements())) {
-            packageXML(pkg, tw);
+            String name = pkg.getQualifiedName().toString();
+            fragments.writeDependencies(name, dependencies(pkg));
+            LibraryRecord library = packageXML(pkg);
+            if (library == null) {
+                continue;
+            }
+            // each library goes to its own file, so they can all be written at once
+            tasks.add(() -> {
+                try (OutputStream out = new FileOutputStream(fragments.xml(name))) {
+                    library.write(out);
+                }
+                return null;
+            });
         }
+        inParallel(tasks);
+    }
+
+    /**
+     * Lists the source files of the superclasses of the classes in the given package,
+     * since inherited setters show up in the tag library too.
+     */
+    private Set<File> dependencies(PackageElement packageDoc) {
+        Set<File> r = new TreeSet<>();
+        for (TypeElement c : ElementFilter.typesIn(packageDoc.getEnclosedElements())) {
+            for (TypeElement t = superclassOf(c); t != null; t = superclassOf(t)) {
+                TreePath path = docTrees.getPath(t);
+                if (path != null) { // null if only available as a class file
+                    r.add(new File(path.getCompilationUnit().getSourceFile().toUri()));
+                }
+            }
+        }
+        return r;
+    }
+
+    private static TypeElement superclassOf(TypeElement classDoc) {
+        TypeMirror base = classDoc.getSuperclass();
+        if (base instanceof DeclaredType) {
+            Element element = ((DeclaredType) base).asElement();
+            if (element instanceof TypeElement) {
+                return (TypeElement) element;
+            }
+        }
+        return null;
     }
 
     /**
      * Generates doc for a tag library
      */
-    private void packageXML(PackageElement packageDoc, Tags tw) throws SAXException {
+    private LibraryRecord packageXML(PackageElement packageDoc) throws SAXException {
+        if (hasTags(packageDoc)) {
+            return libraryXML(packageDoc);
+        }
+        return null;
+    }
 
-        System.out.println("processing package: " + packageDoc.getQualifiedName());
+    /**
+     * @return true if the given package contains any Jelly tag
+     */
+    private boolean hasTags(PackageElement packageDoc) {
+        note("processing package: " + packageDoc.getQualifiedName());
 
         // lets see if we find a Tag
-        boolean foundTag = false;
         for (TypeElement classDoc : ElementFilter.typesIn(packageDoc.getEnclosedElements())) {
             if (isTag(classDoc)) {
-                foundTag = true;
-                break;
+                return true;
             }
         }
-        if (!foundTag) {
-            return;
-        }
+        return false;
+    }
 
-        Library library = tw.library();
-        library.name(packageDoc.getQualifiedName().toString());
+    /**
+     * Generates the body of a tag library
+     */
+    private LibraryRecord libraryXML(PackageElement packageDoc) throws SAXException {
+        LibraryRecord library = new LibraryRecord();
+        library.name = packageDoc.getQualifiedName().toString();
 
         String name = packageDoc.getQualifiedName().toString();
         int idx = name.lastIndexOf('.');
         if (idx > 0) {
             name = name.substring(idx + 1);
         }
-        library.prefix(name);
+        library.prefix = name;
 
         String uri = findUri(packageDoc.getAnnotationMirrors());
         if (uri == null) {
             uri = "jelly:" + name; // fallback
         }
 
-        library.uri(uri);
+        library.uri = uri;
 
         // generate Doc element.
-        docXML(packageDoc, library);
+        library.doc = docContent(packageDoc);
 
         // generate tags
+        long[] counts = libraryCounts.computeIfAbsent(library.name, k -> new long[2]);
         for (TypeElement c : ElementFilter.typesIn(packageDoc.getEnclosedElements())) {
             if (isTag(c) && !c.getModifiers().contains(Modifier.ABSTRACT)) {
-                tagXML(c, library.tag());
+                TagRecord tag = tagXML(c);
+                library.tags.add(tag);
+                counts[0]++;
+                counts[1] += tag.attributes.size();
             }
         }
+        return library;
     }
 
     private String findUri(List<? extends AnnotationMirror> an) {
@@ -210,82 +447,141 @@ public class TagXMLDoclet implements Doclet {
      * @return true if this class is a Jelly Tag
      */
     private boolean isTag(TypeElement classDoc) {
-        List<? extends TypeMirror> interfaceArray = classDoc.getInterfaces();
-        for (TypeMirror i : interfaceArray) {
-            if ("org.apache.commons.jelly.Tag".equals(i.toString())) {
-                return true;
-            }
+        Boolean r = tagTypes.get(classDoc);
+        if (r == null) {
+            r = computeIsTag(classDoc);
+            tagTypes.put(classDoc, r);
         }
-        TypeMirror base = classDoc.getSuperclass();
-        if (base instanceof DeclaredType) {
-            DeclaredType declaredType = (DeclaredType) base;
-            Element element = declaredType.asElement();
-            if (element instanceof TypeElement) {
-                TypeElement typeElement = (TypeElement) element;
-                return isTag(typeElement);
+        return r;
+    }
+
+    private boolean computeIsTag(TypeElement classDoc) {
+        if (tagType != null) {
+            return types.isAssignable(types.erasure(classDoc.asType()), tagType);
+        }
+
+        // without Tag itself on the classpath, all we can go by is the names
+        for (TypeMirror i : classDoc.getInterfaces()) {
+            if (TAG_CLASS.equals(types.erasure(i).toString())) {
+                return true;
             }
         }
-        return false;
+        TypeElement base = superclassOf(classDoc);
+        return base != null && isTag(base);
     }
 
     /**
      * Generates doc for a tag
      */
-    private void tagXML(TypeElement classDoc, org.jvnet.maven.jellydoc.Tag tag) throws SAXException {
+    private TagRecord tagXML(TypeElement classDoc) throws SAXException {
+        TagRecord tag = new TagRecord();
+        tag.qualifiedName = classDoc.getQualifiedName().toString();
         String name = classDoc.getSimpleName().toString();
-        tag.className(name);
+        tag.className = name;
         if (name.endsWith("Tag")) {
             name = name.substring(0, name.length() - 3);
         }
         name = Introspector.decapitalize(name);
 
-        System.out.println("processing tag: " + name);
+        note("processing tag: " + name);
 
-        tag.name(name);
-        if (has(classDoc, NoContent.class)) {
-            tag.noContent(true);
-        }
+        tag.name = name;
+        tag.noContent = has(classDoc, NoContent.class);
 
         // generate "doc" sub-element
-        docXML(classDoc, tag);
+        tag.doc = docContent(classDoc);
 
         // generate the attributes
-        propertiesXML(classDoc, tag);
+        tag.attributes = attributesOf(classDoc);
+        return tag;
     }
 
     /**
-     * Generates doc for a tag property
+     * What goes into a tag library, taken out of the javac model so that it can be written on any thread.
      */
-    private void propertiesXML(TypeElement classDoc, org.jvnet.maven.jellydoc.Tag tag) throws SAXException {
-        for (ExecutableElement m : ElementFilter.methodsIn(classDoc.getEnclosedElements())) {
-            propertyXML(m, tag);
+    private final class LibraryRecord {
+        private String name;
+        private String prefix;
+        private String uri;
+        private DocContent doc;
+        private final List<TagRecord> tags = new ArrayList<>();
+
+        void write(OutputStream out) throws SAXException {
+            Library library = TXW.create(new QName("library"), Library.class, new StreamSerializer(out));
+            library.name(name);
+            library.prefix(prefix);
+            library.uri(uri);
+            doc.write(library);
+            for (TagRecord tag : tags) {
+                long start = System.nanoTime();
+                tag.write(library.tag());
+                tagNanos.put(tag.qualifiedName, System.nanoTime() - start);
+            }
+            library.commit();
         }
-        TypeMirror base = classDoc.getSuperclass();
-        if (base instanceof DeclaredType) {
-            DeclaredType declaredType = (DeclaredType) base;
-            Element element = declaredType.asElement();
-            if (element instanceof TypeElement) {
-                TypeElement typeElement = (TypeElement) element;
-                propertiesXML(typeElement, tag);
+    }
+
+    private static final class TagRecord {
+        private String qualifiedName;
+        private String name;
+        private String className;
+        private boolean noContent;
+        private DocContent doc;
+        private List<AttributeRecord> attributes;
+
+        void write(org.jvnet.maven.jellydoc.Tag tag) throws SAXException {
+            tag.className(className);
+            tag.name(name);
+            if (noContent) {
+                tag.noContent(true);
             }
+            doc.write(tag);
+            for (AttributeRecord a : attributes) {
+                a.write(tag.attribute());
+            }
+        }
+    }
+
+    /**
+     * Extracts the attributes of the given class, including inherited ones.
+     * Abstract base classes are shared by many tags, so this is memoized for every class up the chain.
+     */
+    private List<AttributeRecord> attributesOf(TypeElement classDoc) throws SAXException {
+        List<AttributeRecord> r = attributes.get(classDoc);
+        if (r == null) {
+            r = new ArrayList<>();
+            for (ExecutableElement m : ElementFilter.methodsIn(classDoc.getEnclosedElements())) {
+                AttributeRecord a = propertyXML(m);
+                if (a != null) {
+                    r.add(a);
+                }
+            }
+            TypeElement base = superclassOf(classDoc);
+            if (base != null) {
+                r.addAll(attributesOf(base));
+            }
+            attributes.put(classDoc, r);
         }
+        return r;
     }
 
     /**
      * Generates doc for a tag property
+     *
+     * @return null if the method isn't an attribute setter
      */
-    private void propertyXML(ExecutableElement methodDoc, org.jvnet.maven.jellydoc.Tag tag) throws SAXException {
+    private AttributeRecord propertyXML(ExecutableElement methodDoc) throws SAXException {
         if (!methodDoc.getModifiers().contains(Modifier.PUBLIC)
                 || methodDoc.getModifiers().contains(Modifier.STATIC)) {
-            return;
+            return null;
         }
         String name = methodDoc.getSimpleName().toString();
         if (!name.startsWith("set")) {
-            return;
+            return null;
         }
         List<? extends VariableElement> parameterArray = methodDoc.getParameters();
         if (parameterArray == null || parameterArray.size() != 1) {
-            return;
+            return null;
         }
         VariableElement parameter = parameterArray.get(0);
 
@@ -293,97 +589,183 @@ public class TagXMLDoclet implements Doclet {
         name = Introspector.decapitalize(name);
 
         if (name.equals("body") || name.equals("context") || name.equals("parent")) {
-            return;
-        }
-
-        Attribute a = tag.attribute();
-        a.name(name);
-        a.type(parameter.asType().toString());
-        if (has(methodDoc, Required.class)) {
-            a.use("required");
+            return null;
         }
 
         // maybe do more semantics, like use custom tags to denote if its required, optional etc.
 
         // generate "doc" sub-element
-        docXML(methodDoc, a);
+        return new AttributeRecord(
+                name, parameter.asType().toString(), has(methodDoc, Required.class), docContent(methodDoc));
+    }
+
+    /**
+     * Attribute extracted from a setter, which can be written to every tag that inherits it.
+     */
+    private static final class AttributeRecord {
+        private final String name;
+        private final String type;
+        private final boolean required;
+        private final DocContent doc;
+
+        AttributeRecord(String name, String type, boolean required, DocContent doc) {
+            this.name = name;
+            this.type = type;
+            this.required = required;
+            this.doc = doc;
+        }
+
+        void write(Attribute a) throws SAXException {
+            a.name(name);
+            a.type(type);
+            if (required) {
+                a.use("required");
+            }
+            doc.write(a);
+        }
     }
 
     /**
-     * Generates doc for element "doc"
+     * Extracts the doc comment of the given element. Its HTML is only parsed when it's written.
      */
-    private void docXML(Element doc, Item w) throws SAXException {
-        TypedXmlWriter d = w.doc();
+    private DocContent docContent(Element doc) {
         DocCommentTree docCommentTree = docTrees.getDocCommentTree(doc);
-        if (docCommentTree != null) {
-            StringBuilder sb = new StringBuilder();
-            // handle the "comment" part, including {@link} tags
-            for (DocTree bodyTree : docCommentTree.getFullBody()) {
-                // if tags[i] is an @link tag
-                if (bodyTree instanceof LinkTree) {
-                    LinkTree linkTree = (LinkTree) bodyTree;
-                    List<? extends DocTree> label = linkTree.getLabel();
-                    // if the label is null or empty, use the class#member part of the link
-                    if (label == null || label.isEmpty()) {
-                        ReferenceTree reference = linkTree.getReference();
-                        sb.append(reference.toString());
-                    } else {
-                        for (DocTree labelElement : label) {
-                            sb.append(labelElement.toString());
-                        }
-                    }
-                } else if (bodyTree instanceof LiteralTree) {
-                    sb.append(((LiteralTree) bodyTree).getBody().getBody());
-                } else {
-                    sb.append(bodyTree.toString());
+        if (docCommentTree == null) {
+            return new DocContent("", this::parseHTML);
+        }
+        DocContent content = new DocContent(DocComments.body(docCommentTree), this::parseHTML);
+        for (Map.Entry<String, String> tag : DocComments.blockTags(docCommentTree)) {
+            content.addTag(tag.getKey() + "tag", tag.getValue());
+        }
+        return content;
+    }
+
+    protected void parseHTML(String text, final TypedXmlWriter d) throws SAXException {
+        parseHTML(text).writeBody(d);
+    }
+
+    /**
+     * Parses the HTML of a doc comment.
+     */
+    DocContent parseHTML(String text) throws SAXException {
+        DocContent content = new DocContent(text, this::parseHTML);
+        content.body();
+        return content;
+    }
+
+    private void parseHTML(String text, List<Object> body) throws SAXException {
+        long start = System.nanoTime();
+        if (HtmlParser.parse(text, body, this::validDocElementName)) {
+            htmlNanos.add(System.nanoTime() - start);
+            htmlCount.increment();
+        }
+    }
+
+    /**
+     * nekohtml parser along with the handler that turns its events into {@link DocContent}.
+     *
+     * <p>
+     * Setting up a parser costs far more than parsing a typical doc comment, so parsers are reused,
+     * one per thread as they aren't thread-safe. They hold on to nothing between two parses, and
+     * {@link #release()} drops the one of the current thread, so that long-lived threads such as Maven's
+     * don't keep them, and the class loader they come from, around.
+     */
+    static final class HtmlParser extends DefaultHandler {
+        private static final ThreadLocal<HtmlParser> PARSERS = ThreadLocal.withInitial(HtmlParser::new);
+
+        private final SAXParser parser = new SAXParser();
+        private final Stack<List<Object>> w = new Stack<>();
+
+        /**
+         * Tells the elements to keep, during a parse.
+         */
+        private Predicate<String> isDocElement;
+
+        /**
+         * Parses the HTML of a doc comment into the given list.
+         *
+         * @param isDocElement tells the elements to keep, such as {@link TagXMLDoclet#validDocElementName}.
+         * @return false if the text had no markup, and was added as is.
+         */
+        static boolean parse(String text, List<Object> body, Predicate<String> isDocElement) throws SAXException {
+            if (isPlainText(text)) {
+                // most setter docs are a sentence without any markup, which the parser would just hand back as is,
+                // after the empty <head> it puts in front of every document
+                if (isDocElement.test("head")) {
+                    body.add(new DocContent.Markup("head"));
+                }
+                if (!text.isBlank()) {
+                    body.add(text);
                 }
+                return false;
             }
-            parseHTML(sb.toString(), d);
+            PARSERS.get().doParse(text, body, isDocElement);
+            return true;
+        }
+
+        static void release() {
+            PARSERS.remove();
+        }
 
-            // handle the "tags" part
-            for (DocTree tag : docCommentTree.getBlockTags()) {
-                if (tag instanceof BlockTagTree) {
-                    javadocTagXML((BlockTagTree) tag, w);
+        /**
+         * @return true if the given text has no markup, no entity references, and no line ends the parser would
+         * normalize.
+         */
+        private static boolean isPlainText(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char ch = text.charAt(i);
+                if (ch == '<' || ch == '&' || ch == '\r') {
+                    return false;
                 }
             }
+            return true;
         }
-    }
 
-    protected void parseHTML(String text, final TypedXmlWriter d) throws SAXException {
-        SAXParser parser = new SAXParser();
-        parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
-        parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "lower");
-        parser.setContentHandler(new DefaultHandler() {
-            private Stack<TypedXmlWriter> w = new Stack<>();
-
-            {
-                w.push(d);
+        HtmlParser() {
+            try {
+                parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
+                parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "lower");
+            } catch (SAXException e) {
+                throw new IllegalStateException(e);
             }
+            parser.setContentHandler(this);
+        }
 
-            @Override
-            public void startElement(String namespaceURI, String localName, String qName, Attributes atts)
-                    throws SAXException {
-                if (validDocElementName(localName)) {
-                    w.push(w.peek()._element(localName, TypedXmlWriter.class));
-                }
+        void doParse(String text, List<Object> body, Predicate<String> isDocElement) throws SAXException {
+            // the parser resets itself at the beginning of every document, so only our own state needs resetting
+            w.clear();
+            w.push(body);
+            this.isDocElement = isDocElement;
+            try {
+                parser.parse(new InputSource(new StringReader(text)));
+            } catch (IOException e) {
+                System.err.println("This should never happen!" + e);
+            } finally {
+                w.clear();
+                this.isDocElement = null;
             }
+        }
 
-            @Override
-            public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
-                if (validDocElementName(localName)) {
-                    w.pop();
-                }
+        @Override
+        public void startElement(String namespaceURI, String localName, String qName, Attributes atts)
+                throws SAXException {
+            if (isDocElement.test(localName)) {
+                DocContent.Markup m = new DocContent.Markup(localName);
+                w.peek().add(m);
+                w.push(m.children);
             }
+        }
 
-            @Override
-            public void characters(char[] ch, int start, int length) throws SAXException {
-                w.peek()._pcdata(new String(ch, start, length));
+        @Override
+        public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
+            if (isDocElement.test(localName)) {
+                w.pop();
             }
-        });
-        try {
-            parser.parse(new InputSource(new StringReader(text)));
-        } catch (IOException e) {
-            System.err.println("This should never happen!" + e);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            w.peek().add(new String(ch, start, length));
         }
     }
 
@@ -391,18 +773,14 @@ public class TagXMLDoclet implements Doclet {
      * @return true if the given name is a valid HTML markup element.
      */
     protected boolean validDocElementName(String name) {
-        return !name.equalsIgnoreCase("html") && !name.equalsIgnoreCase("body");
+        return isDocElement(name);
     }
 
     /**
-     * Generates doc for all tag elements.
+     * What {@link #validDocElementName(String)} checks by default.
      */
-    private void javadocTagXML(BlockTagTree tag, Item w) throws SAXException {
-        String name = tag.getTagName() + "tag";
-        String text = tag.toString().substring(tag.getTagName().length() + 2);
-        if (!text.isEmpty()) {
-            w._element(name, TypedXmlWriter.class)._pcdata(text);
-        }
+    static boolean isDocElement(String name) {
+        return !name.equalsIgnoreCase("html") && !name.equalsIgnoreCase("body");
     }
 
     @Override
@@ -413,12 +791,44 @@ public class TagXMLDoclet implements Doclet {
         }
 
         try {
-            main(root);
+            if (metricsFile == null) {
+                main(root);
+                return true;
+            }
+            try (Metrics.Phase p = new Metrics().start("doclet")) {
+                phase = p;
+                main(root);
+            }
+            writeMetrics();
             return true;
         } catch (Exception e) {
+            // don't System.exit(), as we might be running inside the Maven JVM
             e.printStackTrace();
-            System.exit(1);
             return false;
+        } finally {
+            phase = null;
+            HtmlParser.release();
+        }
+    }
+
+    private void writeMetrics() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("doclet.wallNanos", String.valueOf(phase.wallNanos()));
+        props.setProperty("doclet.cpuNanos", String.valueOf(phase.cpuNanos()));
+        props.setProperty("doclet.allocatedBytes", String.valueOf(phase.allocated()));
+        props.setProperty("doclet.peakHeapBytes", String.valueOf(Metrics.peakHeapBytes()));
+        props.setProperty("html.nanos", String.valueOf(htmlNanos.sum()));
+        props.setProperty("html.count", String.valueOf(htmlCount.sum()));
+        for (Map.Entry<String, long[]> e : libraryCounts.entrySet()) {
+            props.setProperty("library." + e.getKey() + ".tags", String.valueOf(e.getValue()[0]));
+            props.setProperty("library." + e.getKey() + ".attributes", String.valueOf(e.getValue()[1]));
+        }
+        for (Map.Entry<String, Long> e : tagNanos.entrySet()) {
+            props.setProperty("tag." + e.getKey(), String.valueOf(e.getValue()));
+        }
+        metricsFile.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(metricsFile)) {
+            props.store(out, null);
         }
     }
 
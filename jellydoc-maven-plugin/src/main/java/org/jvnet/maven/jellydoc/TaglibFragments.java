@@ -0,0 +1,291 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Per-package fragments of {@code taglib.xml}, kept in {@code target/jellydoc-fragments} across runs
+ * so that only the packages affected by a change need to go through javadoc again.
+ *
+ * <p>
+ * For every package {@link TagXMLDoclet} looked at, there's a {@code <package>.deps} file that lists
+ * the source files its classes inherit from, and if the package turned out to be a tag library,
+ * a {@code <package>.xml} file that contains its {@code <library>} element.
+ */
+final class TaglibFragments {
+    static final String DIR_NAME = "jellydoc-fragments";
+
+    private static final String XML = ".xml";
+    private static final String DEPS = ".deps";
+
+    private final File dir;
+
+    TaglibFragments(File dir) {
+        this.dir = dir;
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * The {@code <library>} fragment of the given package.
+     */
+    File xml(String pkg) {
+        dir.mkdirs();
+        return new File(dir, baseName(pkg) + XML);
+    }
+
+    private File deps(String pkg) {
+        dir.mkdirs();
+        return new File(dir, baseName(pkg) + DEPS);
+    }
+
+    private static String baseName(String pkg) {
+        return pkg.isEmpty() ? "_default" : pkg;
+    }
+
+    /**
+     * Records the source files the given package depends on. The paths are relative to this directory,
+     * so that the fragments stay good when restored into another checkout by {@link OutputCache}.
+     */
+    void writeDependencies(String pkg, Collection<File> files) throws IOException {
+        Path base = dir.getAbsoluteFile().toPath();
+        List<String> lines = new ArrayList<>();
+        for (File f : files) {
+            Path p = f.getAbsoluteFile().toPath();
+            if (p.getRoot() != null && p.getRoot().equals(base.getRoot())) {
+                lines.add(base.relativize(p).toString().replace(File.separatorChar, '/'));
+            } else {
+                lines.add(p.toString()); // such as on another drive
+            }
+        }
+        Files.write(deps(pkg).toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return absolute paths of the files.
+     */
+    private Set<String> readDependencies(File depsFile) throws IOException {
+        Path base = dir.getAbsoluteFile().toPath();
+        Set<String> r = new TreeSet<>();
+        for (String line : Files.readAllLines(depsFile.toPath(), StandardCharsets.UTF_8)) {
+            r.add(base.resolve(line.replace('/', File.separatorChar)).normalize().toString());
+        }
+        return r;
+    }
+
+    /**
+     * Computes the packages that need to be regenerated.
+     *
+     * @param changedFiles absolute paths of the source files that were added, removed or modified.
+     */
+    SortedSet<String> affectedPackages(Collection<String> changedFiles, List<File> sourceRoots) throws IOException {
+        SortedSet<String> r = new TreeSet<>();
+        for (String path : changedFiles) {
+            File f = new File(path);
+            for (File root : sourceRoots) {
+                String pkg = packageOf(root, f);
+                if (pkg != null) {
+                    r.add(pkg);
+                }
+            }
+        }
+
+        File[] depsFiles = dir.listFiles((d, name) -> name.endsWith(DEPS));
+        if (depsFiles != null) {
+            for (File depsFile : depsFiles) {
+                Set<String> deps = readDependencies(depsFile);
+                for (String path : changedFiles) {
+                    if (deps.contains(new File(path).getAbsoluteFile().toPath().normalize().toString())) {
+                        String name = depsFile.getName();
+                        name = name.substring(0, name.length() - DEPS.length());
+                        r.add(name.equals("_default") ? "" : name);
+                        break;
+                    }
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Copies a library fragment from elsewhere into this set, under the same name.
+     */
+    void include(File library) throws IOException {
+        dir.mkdirs();
+        Files.copy(library.toPath(), new File(dir, library.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Forgets everything recorded about the given package.
+     */
+    void remove(String pkg) {
+        new File(dir, baseName(pkg) + XML).delete();
+        new File(dir, baseName(pkg) + DEPS).delete();
+    }
+
+    void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Lists the library fragments, in the package name order.
+     */
+    List<File> libraries() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(XML));
+        SortedSet<File> r = new TreeSet<>();
+        if (files != null) {
+            r.addAll(List.of(files));
+        }
+        return new ArrayList<>(r);
+    }
+
+    /**
+     * Splices all the library fragments into one {@code taglib.xml}.
+     * The file is replaced rather than overwritten, as it may be a link into {@link OutputCache}.
+     */
+    void assemble(File taglibXml) throws IOException {
+        File tmp = new File(taglibXml.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><tags>".getBytes(StandardCharsets.UTF_8));
+            for (File f : libraries()) {
+                String xml = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+                out.write(withoutDeclaration(xml).getBytes(StandardCharsets.UTF_8));
+            }
+            out.write("</tags>".getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(tmp.toPath(), taglibXml.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Drops the XML declaration of a fragment, so that it can be spliced into {@code <tags>}.
+     */
+    static String withoutDeclaration(String xml) {
+        if (xml.startsWith("<?xml")) {
+            return xml.substring(xml.indexOf("?>") + 2);
+        }
+        return xml;
+    }
+
+    /**
+     * Reads the prefix of a library fragment, without reading any further than its root element.
+     */
+    static String prefixOf(File fragment) throws IOException {
+        try (InputStream in = new FileInputStream(fragment)) {
+            XMLStreamReader r = XMLInputFactory.newFactory().createXMLStreamReader(in);
+            try {
+                r.nextTag();
+                return r.getAttributeValue(null, "prefix");
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + fragment, e);
+        }
+    }
+
+    /**
+     * Splits a {@code taglib.xml} into per-library fragments, for when only the former is available.
+     * The file is streamed through, so this doesn't need to hold any library in memory.
+     */
+    static TaglibFragments split(File taglibXml, File dir) throws IOException {
+        TaglibFragments fragments = new TaglibFragments(dir);
+        fragments.clear();
+
+        XMLEventFactory ef = XMLEventFactory.newFactory();
+        XMLOutputFactory of = XMLOutputFactory.newFactory();
+        try (InputStream in = new FileInputStream(taglibXml)) {
+            XMLEventReader r = XMLInputFactory.newFactory().createXMLEventReader(in);
+            while (r.hasNext()) {
+                XMLEvent e = r.nextEvent();
+                if (!e.isStartElement() || !e.asStartElement().getName().getLocalPart().equals("library")) {
+                    continue;
+                }
+                Attribute name = e.asStartElement().getAttributeByName(new QName("name"));
+                try (OutputStream out = new FileOutputStream(fragments.xml(name != null ? name.getValue() : ""))) {
+                    XMLEventWriter w = of.createXMLEventWriter(out, "UTF-8");
+                    w.add(ef.createStartDocument("UTF-8"));
+                    w.add(e);
+                    for (int depth = 1; depth > 0; ) {
+                        XMLEvent n = r.nextEvent();
+                        if (n.isStartElement()) {
+                            depth++;
+                        } else if (n.isEndElement()) {
+                            depth--;
+                        }
+                        w.add(n);
+                    }
+                    w.add(ef.createEndDocument());
+                    w.close();
+                }
+            }
+            r.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to split " + taglibXml, e);
+        }
+        return fragments;
+    }
+
+    /**
+     * Determines the package of the given source file.
+     *
+     * @return null if the file is not under the given source root.
+     */
+    static String packageOf(File root, File file) {
+        String rootPath = root.getAbsolutePath() + File.separator;
+        String dirPath = file.getAbsoluteFile().getParent() + File.separator;
+        if (!dirPath.startsWith(rootPath)) {
+            return null;
+        }
+        String rel = dirPath.substring(rootPath.length());
+        if (rel.isEmpty()) {
+            return "";
+        }
+        return rel.substring(0, rel.length() - 1).replace(File.separatorChar, '.');
+    }
+}
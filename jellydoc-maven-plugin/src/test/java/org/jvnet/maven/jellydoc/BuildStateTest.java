@@ -0,0 +1,131 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildStateTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File src;
+    private File jar;
+    private Artifact artifact;
+
+    @Before
+    public void setUp() throws Exception {
+        src = tmp.newFolder("src");
+        write(new File(src, "org/example/FooTag.java"), "class FooTag {}");
+        write(new File(src, "org/example/package.html"), "<html/>");
+        jar = tmp.newFile("dep.jar");
+        artifact = artifact("dep", "1.0", jar);
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        BuildState state = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        File file = new File(tmp.getRoot(), BuildState.FILE_NAME);
+        state.save(file);
+        BuildState loaded = BuildState.load(file);
+        assertEquals(state, loaded);
+        assertNull(loaded.stamp());
+        assertNotNull(state.stamp());
+        assertNull(BuildState.load(new File(tmp.getRoot(), "missing")));
+    }
+
+    @Test
+    public void unchanged() throws Exception {
+        BuildState before = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        BuildState after = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        assertEquals(before, after);
+        assertEquals(before.stamp(), after.stamp());
+    }
+
+    @Test
+    public void sources() throws Exception {
+        BuildState before = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        write(new File(src, "org/example/FooTag.java"), "class FooTag { int x; }");
+        assertNotEquals(before, BuildState.compute(List.of(src), List.of(artifact), "1.0"));
+
+        before = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        Files.delete(new File(src, "org/example/package.html").toPath());
+        assertNotEquals(before, BuildState.compute(List.of(src), List.of(artifact), "1.0"));
+    }
+
+    @Test
+    public void changedSources() throws Exception {
+        BuildState before = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        File foo = new File(src, "org/example/FooTag.java");
+        write(foo, "class FooTag { int x; }");
+        File bar = new File(src, "org/example/BarTag.java");
+        write(bar, "class BarTag {}");
+        File html = new File(src, "org/example/package.html");
+        Files.delete(html.toPath());
+
+        BuildState after = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        assertEquals(
+                Set.of(foo.getAbsolutePath(), bar.getAbsolutePath(), html.getAbsolutePath()),
+                after.changedSources(before));
+        assertTrue(after.hasSameEnvironment(before));
+        assertEquals(Set.of(), before.changedSources(before));
+    }
+
+    @Test
+    public void environment() throws Exception {
+        BuildState before = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        assertFalse(BuildState.compute(List.of(src), List.of(artifact), "1.1").hasSameEnvironment(before));
+        assertFalse(BuildState.compute(List.of(src), List.of(artifact("dep", "2.0", jar)), "1.0")
+                .hasSameEnvironment(before));
+
+        // jars are told apart by their sizes and timestamps
+        write(jar, "changed");
+        assertTrue(jar.setLastModified(jar.lastModified() - 10_000));
+        BuildState after = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        assertFalse(after.hasSameEnvironment(before));
+        assertNotEquals(before.stamp(), after.stamp());
+    }
+
+    @Test
+    public void stamp() throws Exception {
+        String before = BuildState.stamp(List.of(src), List.of(artifact));
+        File foo = new File(src, "org/example/FooTag.java");
+        assertTrue(foo.setLastModified(foo.lastModified() - 10_000));
+        assertNotEquals(before, BuildState.stamp(List.of(src), List.of(artifact)));
+    }
+
+    @Test
+    public void mode() throws Exception {
+        BuildState state = BuildState.compute(List.of(src), List.of(artifact), "1.0");
+        BuildState schemaOnly = BuildState.compute(List.of(src), List.of(artifact), "1.0").withMode("schemaOnly");
+        assertNotEquals(state, schemaOnly);
+    }
+
+    static Artifact artifact(String artifactId, String version, File file) {
+        Artifact a = new DefaultArtifact(
+                "org.example", artifactId, version, "compile", "jar", null, new DefaultArtifactHandler("jar"));
+        a.setFile(file);
+        return a;
+    }
+
+    static void write(File f, String content) throws IOException {
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
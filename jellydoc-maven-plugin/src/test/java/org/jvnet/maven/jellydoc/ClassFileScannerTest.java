@@ -0,0 +1,157 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.maven.jellydoc.ClassFileScanner.ClassInfo;
+import org.jvnet.maven.jellydoc.ClassFileScanner.MethodInfo;
+
+public class ClassFileScannerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File jelly;
+    private File classes;
+
+    @Before
+    public void compile() throws Exception {
+        jelly = Fixtures.jar(
+                tmp.newFolder("jelly"),
+                Map.of(
+                        "org/apache/commons/jelly/Tag.java",
+                        "package org.apache.commons.jelly; public interface Tag {}",
+                        "org/apache/commons/jelly/TagSupport.java",
+                        "package org.apache.commons.jelly; public abstract class TagSupport implements Tag {}"));
+        classes = Fixtures.compile(
+                tmp.newFolder("project"),
+                Map.of(
+                        "org/example/Mark.java",
+                        "package org.example; import java.lang.annotation.*;"
+                                + " @Retention(RetentionPolicy.CLASS) public @interface Mark {"
+                                + " String value() default \"\"; int count() default 0;"
+                                + " ElementType kind() default ElementType.TYPE;"
+                                + " Class<?> type() default Object.class; }",
+                        "org/example/tags/FooTag.java",
+                        "package org.example.tags; import java.util.List; import org.example.*;"
+                                + " @Mark(value = \"foo\", count = 2, type = Helper.class,"
+                                + " kind = java.lang.annotation.ElementType.FIELD)"
+                                + " public class FooTag extends org.apache.commons.jelly.TagSupport {"
+                                + " static final long BIG = 1L << 40; static final double PI = 3.14;"
+                                + " private Other other;"
+                                + " @Mark(\"bar\") public void setBar(List<Value> bar) {}"
+                                + " public static class Nested {} }",
+                        "org/example/tags/Other.java",
+                        "package org.example.tags; public class Other {}",
+                        "org/example/Value.java",
+                        "package org.example; public class Value {}",
+                        "org/example/Helper.java",
+                        "package org.example; public class Helper {}",
+                        "org/example/Orphan.java",
+                        "package org.example; public class Orphan extends Helper implements Runnable {"
+                                + " public void run() {} }"),
+                jelly);
+    }
+
+    @Test
+    public void read() throws Exception {
+        ClassInfo c;
+        try (InputStream in = new FileInputStream(new File(classes, "org/example/tags/FooTag.class"))) {
+            c = ClassFileScanner.read(in);
+        }
+        assertEquals("org/example/tags/FooTag", c.name);
+        assertEquals("org/apache/commons/jelly/TagSupport", c.superName);
+        assertEquals(List.of(), c.interfaces);
+        assertEquals(ClassFileScanner.ACC_PUBLIC, c.access & ClassFileScanner.ACC_PUBLIC);
+        Map<String, String> mark = c.annotations.get("Lorg/example/Mark;");
+        assertEquals("foo", mark.get("value"));
+        assertEquals("FIELD", mark.get("kind"));
+        assertFalse(mark.containsKey("type"));
+
+        MethodInfo setter = null;
+        for (MethodInfo m : c.methods) {
+            if (m.name.equals("setBar")) {
+                setter = m;
+            }
+        }
+        assertEquals("(Ljava/util/List;)V", setter.descriptor);
+        assertEquals("(Ljava/util/List<Lorg/example/Value;>;)V", setter.signature);
+        assertEquals("bar", setter.annotations.get("Lorg/example/Mark;").get("value"));
+
+        for (String ref : List.of(
+                "org/example/Mark",
+                "org/example/Helper",
+                "org/example/Value",
+                "org/example/tags/Other",
+                "org/apache/commons/jelly/TagSupport",
+                "java/util/List")) {
+            assertTrue(ref, c.references.contains(ref));
+        }
+
+        try (InputStream in = new FileInputStream(new File(classes, "org/example/Orphan.class"))) {
+            c = ClassFileScanner.read(in);
+        }
+        assertEquals("org/example/Helper", c.superName);
+        assertEquals(List.of("java/lang/Runnable"), c.interfaces);
+    }
+
+    @Test
+    public void isTag() throws Exception {
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes, jelly))) {
+            assertEquals(Boolean.TRUE, scanner.isTag("org/example/tags/FooTag"));
+            assertEquals(Boolean.FALSE, scanner.isTag("org/example/Orphan"));
+            assertEquals(Boolean.FALSE, scanner.isTag("org/example/tags/FooTag$Nested"));
+            assertNull(scanner.isTag("org/example/Missing"));
+            assertEquals("java/lang/Object", scanner.find("org/example/Helper").superName);
+        }
+        // without jelly, the supertype of the tag is nowhere to be found
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes))) {
+            assertNull(scanner.isTag("org/example/tags/FooTag"));
+            assertEquals(Boolean.FALSE, scanner.isTag("org/example/Orphan"));
+        }
+    }
+
+    @Test
+    public void tagPackages() throws Exception {
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes, jelly))) {
+            assertEquals(Set.of("org.example.tags"), scanner.tagPackages(classes));
+        }
+        // a package stays in if its classes can't be told apart from tags
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes))) {
+            assertEquals(Set.of("org.example.tags"), scanner.tagPackages(classes));
+        }
+    }
+
+    @Test
+    public void referencesIn() {
+        Set<String> r = new TreeSet<>();
+        ClassFileScanner.referencesIn(
+                "<T:Lorg/example/A;>(Ljava/util/Map<Ljava/lang/String;[Lorg/example/B$C;>;TT;[I)Lorg/example/D<*>;", r);
+        assertEquals(
+                Set.of("org/example/A", "java/util/Map", "java/lang/String", "org/example/B$C", "org/example/D"), r);
+    }
+
+    @Test
+    public void locate() throws Exception {
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes, jelly))) {
+            assertEquals(classes, scanner.locate("org/example/Helper"));
+            assertEquals(jelly, scanner.locate("org/apache/commons/jelly/Tag"));
+            assertNull(scanner.locate("java/lang/Object"));
+            assertEquals(List.of(jelly), scanner.locatePackage("org/apache/commons/jelly"));
+            assertEquals(List.of(classes), scanner.locatePackage("org/example/tags"));
+            assertEquals(List.of(), scanner.locatePackage("org/apache"));
+        }
+    }
+}
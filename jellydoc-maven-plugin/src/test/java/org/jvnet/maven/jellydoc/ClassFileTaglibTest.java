@@ -0,0 +1,81 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.maven.jellydoc.ClassFileTaglib.AttributeInfo;
+import org.jvnet.maven.jellydoc.annotation.Required;
+
+public class ClassFileTaglibTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void attributes() throws Exception {
+        File annotations = new File(Required.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File classes = Fixtures.compile(
+                tmp.newFolder("project"),
+                Map.of(
+                        "org/example/BaseTag.java",
+                        "package org.example; public abstract class BaseTag {"
+                                + " public void setBody(Object body) {} public void setInherited(int i) {} }",
+                        "org/example/FooTag.java",
+                        "package org.example; import org.jvnet.maven.jellydoc.annotation.Required;"
+                                + " public class FooTag extends BaseTag {"
+                                + " @Required public void setName(String name) {}"
+                                + " public void setItems(java.util.List<? extends Number>[] items) {}"
+                                + " public static void setStatic(String s) {}"
+                                + " public void setTwo(String a, String b) {}"
+                                + " void setHidden(String s) {} }"),
+                annotations);
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(classes, annotations))) {
+            List<String> r = new ArrayList<>();
+            for (AttributeInfo a : new ClassFileTaglib(scanner).attributesOf("org/example/FooTag")) {
+                r.add(a.name + ':' + a.type + (a.required ? ":required" : ""));
+            }
+            assertEquals(
+                    List.of(
+                            "name:java.lang.String:required",
+                            "items:java.util.List<? extends java.lang.Number>[]",
+                            "inherited:int"),
+                    r);
+        }
+    }
+
+    @Test
+    public void annotationsRetained() throws Exception {
+        File annotations = new File(Required.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(annotations))) {
+            assertTrue(new ClassFileTaglib(scanner).annotationsRetained());
+        }
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of())) {
+            assertTrue(new ClassFileTaglib(scanner).annotationsRetained());
+        }
+
+        // as released, before they were kept in the class files
+        File released = Fixtures.jar(
+                tmp.newFolder("released"),
+                Map.of(
+                        "org/jvnet/maven/jellydoc/annotation/Required.java",
+                        "package org.jvnet.maven.jellydoc.annotation; import java.lang.annotation.*;"
+                                + " @Retention(RetentionPolicy.SOURCE) public @interface Required {}"));
+        try (ClassFileScanner scanner = new ClassFileScanner(List.of(released))) {
+            assertFalse(new ClassFileTaglib(scanner).annotationsRetained());
+        }
+    }
+
+    @Test
+    public void tagName() {
+        assertEquals("foo", ClassFileTaglib.tagName("FooTag"));
+        assertEquals("fooBar", ClassFileTaglib.tagName("FooBar"));
+        assertEquals("URL", ClassFileTaglib.tagName("URLTag"));
+    }
+}
@@ -0,0 +1,67 @@
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the sources the tests that read class files work on.
+ */
+final class Fixtures {
+    private Fixtures() {}
+
+    /**
+     * Writes the given sources into {@code dir/src} and compiles them into {@code dir/classes}.
+     *
+     * @param sources source code by the path of its file, such as {@code org/example/FooTag.java}.
+     * @return the directory of the classes.
+     */
+    static File compile(File dir, Map<String, String> sources, File... classpath) throws IOException {
+        File src = new File(dir, "src");
+        File classes = new File(dir, "classes");
+        classes.mkdirs();
+        List<String> args = new ArrayList<>(List.of("-d", classes.getPath(), "-proc:none"));
+        if (classpath.length > 0) {
+            args.add("-cp");
+            args.add(List.of(classpath).stream().map(File::getPath).collect(Collectors.joining(File.pathSeparator)));
+        }
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            File f = new File(src, e.getKey());
+            f.getParentFile().mkdirs();
+            Files.write(f.toPath(), e.getValue().getBytes(StandardCharsets.UTF_8));
+            args.add(f.getPath());
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac.run(null, null, null, args.toArray(new String[0])) != 0) {
+            throw new IOException("Failed to compile " + sources.keySet());
+        }
+        return classes;
+    }
+
+    /**
+     * Compiles the given sources into a jar.
+     */
+    static File jar(File dir, Map<String, String> sources, File... classpath) throws IOException {
+        File classes = compile(dir, sources, classpath);
+        File jar = new File(dir, "classes.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (File f : BuildState.listFiles(classes)) {
+                String path = classes.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+                out.putNextEntry(new JarEntry(path));
+                Files.copy(f.toPath(), out);
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,65 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JavadocClasspathTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void compute() throws Exception {
+        File types = jar("types", "org/types/Value.java", "package org.types; public class Value {}");
+        File jelly = Fixtures.jar(
+                tmp.newFolder("jelly"),
+                Map.of(
+                        "org/apache/commons/jelly/Tag.java",
+                        "package org.apache.commons.jelly; public interface Tag {}",
+                        "org/apache/commons/jelly/TagSupport.java",
+                        "package org.apache.commons.jelly; public abstract class TagSupport implements Tag {"
+                                + " public void setValue(org.types.Value v) {} }"),
+                types);
+        File consts = jar(
+                "consts",
+                "org/consts/Consts.java",
+                "package org.consts; public class Consts { public static final String X = \"x\"; }");
+        File star = jar("star", "org/star/Thing.java", "package org.star; public class Thing {}");
+        File ref = jar("ref", "org/ref/Ref.java", "package org.ref; public class Ref {}");
+        File unused = jar("unused", "org/unused/Nothing.java", "package org.unused; public class Nothing {}");
+        List<File> classpath = List.of(unused, types, jelly, consts, star, ref);
+
+        File project = tmp.newFolder("project");
+        File classes = Fixtures.compile(
+                project,
+                Map.of(
+                        "org/example/FooTag.java",
+                        "package org.example;\nimport org.consts.Consts;\nimport org.star.*;\n"
+                                + "public class FooTag extends org.apache.commons.jelly.TagSupport {"
+                                + " static final String X = Consts.X; Helper helper; }",
+                        "org/example/Helper.java",
+                        "package org.example; public class Helper { org.ref.Ref ref; }",
+                        "org/other/Unrelated.java",
+                        "package org.other; public class Unrelated { org.unused.Nothing nothing; }"),
+                classpath.toArray(new File[0]));
+        File src = new File(project, "src");
+
+        List<File> scanned = new ArrayList<>(List.of(classes));
+        scanned.addAll(classpath);
+        try (ClassFileScanner scanner = new ClassFileScanner(scanned)) {
+            List<File> r = new JavadocClasspath(List.of(src), classes, scanner)
+                    .compute(List.of(new File(src, "org/example/FooTag.java")), classpath);
+            assertEquals(List.of(types, jelly, consts, star, ref), r);
+        }
+    }
+
+    private File jar(String name, String path, String source) throws Exception {
+        return Fixtures.jar(tmp.newFolder(name), Map.of(path, source));
+    }
+}
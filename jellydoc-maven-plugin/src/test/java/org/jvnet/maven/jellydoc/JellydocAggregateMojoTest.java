@@ -0,0 +1,134 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JellydocAggregateMojoTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private JellydocAggregateMojo mojo;
+
+    /**
+     * Classifiers of the attached artifacts.
+     */
+    private final List<String> attached = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mojo = new JellydocAggregateMojo();
+        mojo.project = project("top");
+        mojo.helper = (MavenProjectHelper) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] {MavenProjectHelper.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("attachArtifact")) {
+                        attached.add((String) args[2]);
+                    }
+                    return null;
+                });
+    }
+
+    @Test
+    public void firstModuleWins() throws Exception {
+        Map<MavenProject, TaglibFragments> modules = new LinkedHashMap<>();
+        modules.put(project("b"), fragments("b", "org.example.b", "org.example.shared"));
+        modules.put(project("a"), fragments("a", "org.example.a", "org.example.shared"));
+
+        TaglibFragments merged = mojo.merge(modules);
+
+        assertEquals(new File(mojo.targetDir(), TaglibFragments.DIR_NAME), merged.getDir());
+        List<String> names = new ArrayList<>();
+        for (File f : merged.libraries()) {
+            names.add(f.getName());
+        }
+        assertEquals(List.of("org.example.a.xml", "org.example.b.xml", "org.example.shared.xml"), names);
+        assertEquals(
+                "<library name='org.example.shared' from='b'/>",
+                Files.readString(merged.xml("org.example.shared").toPath()));
+    }
+
+    @Test
+    public void schemaBundle() throws Exception {
+        mojo.targetDir().mkdirs();
+        write(new File(mojo.targetDir(), "taglib-a.xsd"), "<schema name='a'/>");
+        write(new File(mojo.targetDir(), "taglib-b.xsd"), "<schema name='b'/>");
+        write(new File(mojo.targetDir(), "taglib.xml"), "<tags/>");
+
+        mojo.bundleSchemas();
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(bundle()))) {
+            for (ZipEntry e; (e = in.getNextEntry()) != null; ) {
+                entries.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(Map.of("taglib-a.xsd", "<schema name='a'/>", "taglib-b.xsd", "<schema name='b'/>"), entries);
+        assertEquals(List.of(JellydocAggregateMojo.SCHEMA_BUNDLE), attached);
+    }
+
+    @Test
+    public void schemaBundleNotAttached() throws Exception {
+        mojo.attach = false;
+        mojo.targetDir().mkdirs();
+        write(new File(mojo.targetDir(), "taglib-a.xsd"), "<schema/>");
+
+        mojo.bundleSchemas();
+
+        assertTrue(bundle().exists());
+        assertEquals(List.of(), attached);
+    }
+
+    @Test
+    public void noSchemas() throws Exception {
+        mojo.targetDir().mkdirs();
+        write(bundle(), "left over");
+
+        mojo.bundleSchemas();
+
+        assertFalse(bundle().exists());
+        assertEquals(List.of(), attached);
+    }
+
+    private File bundle() {
+        return new File(mojo.targetDir(), JellydocAggregateMojo.SCHEMA_BUNDLE + ".zip");
+    }
+
+    private MavenProject project(String name) throws IOException {
+        MavenProject p = new MavenProject();
+        p.setArtifactId(name);
+        p.setFile(new File(tmp.newFolder(name), "pom.xml"));
+        return p;
+    }
+
+    private TaglibFragments fragments(String module, String... packages) throws IOException {
+        TaglibFragments r =
+                new TaglibFragments(new File(tmp.getRoot(), module + "/target/" + TaglibFragments.DIR_NAME));
+        for (String pkg : packages) {
+            write(r.xml(pkg), "<library name='" + pkg + "' from='" + module + "'/>");
+        }
+        return r;
+    }
+
+    private static void write(File f, String content) throws IOException {
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
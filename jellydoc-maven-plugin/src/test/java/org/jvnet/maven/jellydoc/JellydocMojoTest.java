@@ -0,0 +1,138 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JellydocMojoTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private JellydocMojo mojo;
+    private File src;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        src = tmp.newFolder("src", "main", "java");
+        write(new File(src, "org/example/FooTag.java"), "class FooTag {}");
+        target = tmp.newFolder("target");
+
+        MavenProject project = new MavenProject();
+        project.getModel().setBuild(new Build());
+        project.setFile(new File(tmp.getRoot(), "pom.xml"));
+        project.addCompileSourceRoot(src.getAbsolutePath());
+        project.getBuild().setOutputDirectory(new File(target, "classes").getAbsolutePath());
+
+        mojo = new JellydocMojo();
+        mojo.project = project;
+        mojo.session = new MavenSession(
+                null,
+                new DefaultRepositorySystemSession(),
+                new DefaultMavenExecutionRequest(),
+                new DefaultMavenExecutionResult());
+        mojo.pluginVersion = "1.0";
+    }
+
+    @Test
+    public void generatedByEarlierBuild() throws Exception {
+        BuildState state = outputs();
+        assertFalse(mojo.isGeneratedInThisSession());
+        mojo.session.getRepositorySession().getData().set(mojo.stateKey(), state);
+        assertTrue(mojo.isGeneratedInThisSession());
+    }
+
+    @Test
+    public void reused() throws Exception {
+        generated();
+        assertTrue(mojo.isGeneratedInThisSession());
+    }
+
+    @Test
+    public void sourcesChanged() throws Exception {
+        generated();
+        write(new File(src, "org/example/FooTag.java"), "class FooTag { int x; }");
+        assertFalse(mojo.isGeneratedInThisSession());
+    }
+
+    /**
+     * The sources are told apart by their timestamps, without reading them again.
+     */
+    @Test
+    public void sourcesTouched() throws Exception {
+        generated();
+        File foo = new File(src, "org/example/FooTag.java");
+        assertTrue(foo.setLastModified(foo.lastModified() - 10_000));
+        assertFalse(mojo.isGeneratedInThisSession());
+    }
+
+    @Test
+    public void outputsGone() throws Exception {
+        for (String name : List.of("taglib.xml", JellydocMojo.BINARY_TAGLIB, "taglib-foo.xsd")) {
+            generated();
+            assertTrue(mojo.outputsExist());
+            new File(target, name).delete();
+            assertFalse(name, mojo.outputsExist());
+            assertFalse(name, mojo.isGeneratedInThisSession());
+        }
+    }
+
+    /**
+     * A library whose prefix has no schema yet, as when a package-info changed its prefix.
+     */
+    @Test
+    public void schemaOfNewPrefix() throws Exception {
+        generated();
+        write(new File(target, TaglibFragments.DIR_NAME + "/org.example.bar.xml"), "<library prefix='bar'/>");
+        assertFalse(mojo.outputsExist());
+        write(new File(target, "taglib-bar.xsd"), "<schema/>");
+        assertTrue(mojo.outputsExist());
+    }
+
+    @Test
+    public void stateFileChanged() throws Exception {
+        generated();
+        new File(target, BuildState.FILE_NAME).delete();
+        assertFalse(mojo.isGeneratedInThisSession());
+    }
+
+    /**
+     * Leaves behind what the jellydoc goal does in this session once it has generated the outputs.
+     */
+    private void generated() throws IOException {
+        mojo.session.getRepositorySession().getData().set(mojo.stateKey(), outputs());
+    }
+
+    /**
+     * Leaves behind the outputs and the state file, as if the jellydoc goal ran in an earlier build.
+     */
+    private BuildState outputs() throws IOException {
+        write(new File(target, "taglib.xml"), "<tags/>");
+        write(new File(target, JellydocMojo.BINARY_TAGLIB), "");
+        write(new File(target, TaglibFragments.DIR_NAME + "/org.example.xml"), "<library prefix='foo'/>");
+        write(new File(target, "taglib-foo.xsd"), "<schema/>");
+        BuildState state = BuildState.compute(List.of(src), mojo.project.getArtifacts(), mojo.pluginVersion);
+        state.save(new File(target, BuildState.FILE_NAME));
+        return state;
+    }
+
+    private static void write(File f, String content) throws IOException {
+        f.getParentFile().mkdirs();
+        Files.writeString(f.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,27 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+public class MetricsTest {
+    /**
+     * What tracked tasks allocate on other threads counts towards the phase.
+     */
+    @Test
+    public void tracksOtherThreads() throws Exception {
+        assumeTrue(Metrics.allocatedBytes() >= 0);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Metrics.Phase p = new Metrics().start("test");
+        try {
+            pool.submit(p.track(() -> new byte[16 * 1024 * 1024])).get();
+        } finally {
+            pool.shutdown();
+            p.close();
+        }
+        assertTrue(String.valueOf(p.allocated()), p.allocated() >= 16 * 1024 * 1024);
+    }
+}
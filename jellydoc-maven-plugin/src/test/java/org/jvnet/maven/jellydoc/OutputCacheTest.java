@@ -0,0 +1,132 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import org.apache.maven.artifact.Artifact;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutputCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = tmp.newFolder("cache");
+    }
+
+    @Test
+    public void storeAndRestore() throws Exception {
+        File target = tmp.newFolder("a", "target");
+        File taglibXml = new File(target, "taglib.xml");
+        BuildStateTest.write(taglibXml, "<tags/>");
+        BuildStateTest.write(new File(target, "jellydoc-fragments/org.example.xml"), "<library/>");
+        BuildStateTest.write(new File(target, "unrelated.txt"), "not cached");
+
+        OutputCache cache = new OutputCache(cacheDir, Long.MAX_VALUE);
+        assertNull(cache.restore("key", target));
+        cache.store("key", target, List.of(taglibXml, new File(target, "jellydoc-fragments")));
+        // the first one to store wins; outputs are replaced rather than written into, as they're linked
+        File replacement = new File(target, "taglib.xml.tmp");
+        BuildStateTest.write(replacement, "<tags><library/></tags>");
+        Files.move(replacement.toPath(), taglibXml.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        cache.store("key", target, List.of(taglibXml));
+
+        File other = new File(tmp.getRoot(), "b/target");
+        BuildStateTest.write(new File(other, "taglib.xml"), "stale");
+        Set<File> restored = cache.restore("key", other);
+        assertEquals(
+                Set.of(new File(other, "taglib.xml"), new File(other, "jellydoc-fragments/org.example.xml")), restored);
+        assertEquals("<tags/>", read(new File(other, "taglib.xml")));
+        assertEquals("<library/>", read(new File(other, "jellydoc-fragments/org.example.xml")));
+        assertFalse(new File(other, "unrelated.txt").exists());
+        assertEquals(1, cacheDir.list().length);
+    }
+
+    @Test
+    public void evict() throws Exception {
+        File target = tmp.newFolder("target");
+        File taglibXml = new File(target, "taglib.xml");
+        BuildStateTest.write(taglibXml, "0123456789");
+
+        OutputCache cache = new OutputCache(cacheDir, 25);
+        long now = System.currentTimeMillis();
+        cache.store("old", target, List.of(taglibXml));
+        assertTrue(new File(cacheDir, "old").setLastModified(now - 20_000));
+        cache.store("used", target, List.of(taglibXml));
+        assertTrue(new File(cacheDir, "used").setLastModified(now - 30_000));
+        cache.restore("used", target);
+        // the third entry doesn't fit, so the least recently used one goes
+        cache.store("new", target, List.of(taglibXml));
+
+        assertEquals(Set.of("used", "new"), Set.of(cacheDir.list()));
+    }
+
+    /**
+     * The fragments of a workspace keep telling which packages a change affects once restored into another.
+     */
+    @Test
+    public void affectedPackagesAfterRestore() throws Exception {
+        File a = tmp.newFolder("a");
+        TaglibFragments fragments = new TaglibFragments(new File(a, "target/" + TaglibFragments.DIR_NAME));
+        fragments.writeDependencies(
+                "org.example.foo",
+                List.of(new File(a, "src/org/example/foo/FooTag.java"), new File(a, "src/org/example/BaseTag.java")));
+        OutputCache cache = new OutputCache(cacheDir, Long.MAX_VALUE);
+        cache.store("key", new File(a, "target"), List.of(fragments.getDir()));
+
+        File b = tmp.newFolder("elsewhere", "b");
+        cache.restore("key", new File(b, "target"));
+        TaglibFragments restored = new TaglibFragments(new File(b, "target/" + TaglibFragments.DIR_NAME));
+        File base = new File(b, "src/org/example/BaseTag.java");
+        assertEquals(
+                Set.of("org.example", "org.example.foo"),
+                restored.affectedPackages(List.of(base.getAbsolutePath()), List.of(new File(b, "src"))));
+        // nothing in the original workspace is affected by the restored copy
+        assertEquals(
+                Set.of(),
+                restored.affectedPackages(
+                        List.of(new File(a, "src/org/example/BaseTag.java").getAbsolutePath()),
+                        List.of(new File(b, "src"))));
+    }
+
+    @Test
+    public void portableDigest() throws Exception {
+        File a = tmp.newFolder("a");
+        File b = tmp.newFolder("b");
+        for (File basedir : List.of(a, b)) {
+            BuildStateTest.write(new File(basedir, "src/org/example/FooTag.java"), "class FooTag {}");
+        }
+        File jar = tmp.newFile("dep.jar");
+        List<Artifact> artifacts = List.of(BuildStateTest.artifact("dep", "1.0", jar));
+
+        String digest = portableDigest(a, artifacts);
+        assertEquals(digest, portableDigest(b, artifacts));
+
+        BuildStateTest.write(new File(b, "src/org/example/FooTag.java"), "class FooTag { int x; }");
+        assertNotEquals(digest, portableDigest(b, artifacts));
+    }
+
+    private static String portableDigest(File basedir, List<Artifact> artifacts) throws Exception {
+        return BuildState.compute(List.of(new File(basedir, "src")), artifacts, "1.0")
+                .portableDigest(basedir, artifacts);
+    }
+
+    private static String read(File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+}
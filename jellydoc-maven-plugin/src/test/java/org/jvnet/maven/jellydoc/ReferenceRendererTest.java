@@ -0,0 +1,105 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.impl.AbstractTextSinkFactory;
+import org.apache.maven.doxia.sink.impl.Xhtml5BaseSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReferenceRendererTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    static final String TAGLIB = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<tags>\n"
+            + "<library name='org.example.layout' prefix='layout' uri='/lib/layout'>\n"
+            + "  <doc>Page layout.</doc>\n"
+            + "  <tag name='main-panel' className='org.example.layout.MainPanelTag'>\n"
+            + "    <doc>The main <b>panel</b>.</doc>\n"
+            + "    <attribute name='title' type='java.lang.String' use='required'><doc>Title.</doc></attribute>\n"
+            + "    <attribute name='trim' type='boolean'><doc>Hidden.</doc></attribute>\n"
+            + "  </tag>\n"
+            + "  <tag name='header' className='org.example.layout.HeaderTag' no-content='true'>\n"
+            + "    <doc>Header.</doc>\n"
+            + "  </tag>\n"
+            + "</library>\n"
+            + "<library name='org.example.form' prefix='f' uri='/lib/form'>\n"
+            + "  <doc>Forms.</doc>\n"
+            + "  <tag name='entry' className='org.example.form.EntryTag'>\n"
+            + "    <doc>An entry.</doc>\n"
+            + "    <attribute name='field' type='java.lang.String' deprecated='true'><doc>Field.</doc></attribute>\n"
+            + "    <body><doc>The control.</doc></body>\n"
+            + "  </tag>\n"
+            + "</library>\n"
+            + "</tags>\n";
+
+    /**
+     * Rendering from the per-library files must give the same page as rendering from {@code taglib.xml}.
+     */
+    @Test
+    public void fragmentsRenderLikeTaglibXml() throws Exception {
+        File taglibXml = tmp.newFile("taglib.xml");
+        Files.writeString(taglibXml.toPath(), TAGLIB, StandardCharsets.UTF_8);
+        TaglibFragments fragments = TaglibFragments.split(taglibXml, tmp.newFolder(TaglibFragments.DIR_NAME));
+
+        StringWriter fromXml = new StringWriter();
+        new ReferenceRenderer(new Xhtml5BaseSink(fromXml), taglibXml.toURI().toURL()).render();
+        StringWriter fromFragments = new StringWriter();
+        new ReferenceRenderer(new Xhtml5BaseSink(fromFragments), fragments.libraries()).render();
+
+        String html = fromXml.toString();
+        assertEquals(html, fromFragments.toString());
+
+        // libraries and tags come out sorted by name
+        assertTrue(html, html.indexOf("/lib/form") < html.indexOf("/lib/layout"));
+        assertTrue(html, html.indexOf("header") < html.indexOf("main-panel"));
+        assertTrue(html, html.contains("title (required)"));
+        assertTrue(html, html.contains("field (deprecated)"));
+        assertTrue(html, html.contains("The control."));
+        assertFalse(html, html.contains("Hidden."));
+    }
+
+    @Test
+    public void onePagePerLibrary() throws Exception {
+        File taglibXml = tmp.newFile("taglib.xml");
+        Files.writeString(taglibXml.toPath(), TAGLIB, StandardCharsets.UTF_8);
+        TaglibFragments fragments = TaglibFragments.split(taglibXml, tmp.newFolder(TaglibFragments.DIR_NAME));
+        File site = tmp.newFolder("site");
+
+        StringWriter overview = new StringWriter();
+        new ReferenceRenderer(new Xhtml5BaseSink(overview), fragments.libraries())
+                .renderPages(new HtmlSinkFactory(), site, "jelly-taglib-ref");
+
+        assertEquals(Set.of("jelly-taglib-ref-f.html", "jelly-taglib-ref-layout.html"), Set.of(site.list()));
+        String html = overview.toString();
+        assertTrue(html, html.contains("href='jelly-taglib-ref-f.html'"));
+        assertTrue(html, html.contains("href='jelly-taglib-ref-layout.html'"));
+        assertFalse(html, html.contains("An entry."));
+
+        String form = Files.readString(new File(site, "jelly-taglib-ref-f.html").toPath(), StandardCharsets.UTF_8);
+        assertTrue(form, form.contains("An entry."));
+        assertFalse(form, form.contains("Header."));
+        String layout =
+                Files.readString(new File(site, "jelly-taglib-ref-layout.html").toPath(), StandardCharsets.UTF_8);
+        assertTrue(layout, layout.contains("main-panel"));
+        assertFalse(layout, layout.contains("An entry."));
+    }
+
+    private static final class HtmlSinkFactory extends AbstractTextSinkFactory {
+        @Override
+        protected Sink createSink(Writer writer, String encoding) {
+            return new Xhtml5BaseSink(writer);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.TypedXmlWriter;
+import com.sun.xml.txw2.output.StreamSerializer;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.DocumentationTool;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import javax.xml.namespace.QName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TagXMLDocletTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final TagXMLDoclet doclet = new TagXMLDoclet();
+
+    /**
+     * Comments without markup skip the HTML parser, which must not make any difference.
+     */
+    @Test
+    public void plainText() throws Exception {
+        for (String text : new String[] {
+            "",
+            "   ",
+            "Sets the name of the variable to export the result to.",
+            "  Leading and trailing whitespace.  ",
+            "Tabs\tand  repeated   spaces.",
+            "A comment\n over several\n   lines.\n",
+            "Quotes \"like these\", 'apostrophes', and a > sign.",
+        }) {
+            assertEquals(text, parsed(text), write(doclet.parseHTML(text)));
+        }
+    }
+
+    /**
+     * The libraries are written concurrently, which must not make any difference to the output.
+     */
+    @Test
+    public void threads() throws Exception {
+        File jelly = Fixtures.jar(
+                tmp.newFolder("jelly"),
+                Map.of(
+                        "org/apache/commons/jelly/Tag.java",
+                        "package org.apache.commons.jelly; public interface Tag {}",
+                        "org/apache/commons/jelly/TagSupport.java",
+                        "package org.apache.commons.jelly; public abstract class TagSupport implements Tag {}"));
+        Map<String, String> sources = new HashMap<>();
+        sources.put(
+                "org/example/base/BaseTag.java",
+                "package org.example.base; public abstract class BaseTag extends org.apache.commons.jelly.TagSupport {"
+                        + " /** Name of <b>the</b> variable. */ public void setVar(String var) {} }");
+        for (String lib : List.of("a", "b", "c", "d", "e")) {
+            sources.put(
+                    "org/example/" + lib + "/package-info.java",
+                    "/** Library <i>" + lib + "</i>. */ package org.example." + lib + ";");
+            for (String tag : List.of("One", "Two", "Three")) {
+                sources.put(
+                        "org/example/" + lib + "/" + tag + "Tag.java",
+                        "package org.example." + lib + ";"
+                                + " /** Does <code>" + tag + "</code>.<p>More &amp; more.\n * @since 1." + lib
+                                + "\n */ public class " + tag + "Tag extends org.example.base.BaseTag {"
+                                + " /** How many. */ public void setCount(int count) {}"
+                                + " public void setItems(java.util.List<String> items) {} }");
+            }
+        }
+        File src = new File(Fixtures.compile(tmp.newFolder("project"), sources, jelly).getParentFile(), "src");
+
+        byte[] one = javadoc(src, jelly, 1);
+        assertTrue(new String(one, StandardCharsets.UTF_8).contains("<library name=\"org.example.e\""));
+        for (int n : new int[] {2, 8}) {
+            assertArrayEquals("with " + n + " threads", one, javadoc(src, jelly, n));
+        }
+    }
+
+    private byte[] javadoc(File src, File jelly, int threads) throws Exception {
+        File out = tmp.newFolder("out" + threads);
+        DocumentationTool tool = ToolProvider.getSystemDocumentationTool();
+        try (StandardJavaFileManager fm = tool.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            List<String> options = List.of(
+                    "-classpath", jelly.getPath(), "-d", out.getPath(), "-threads", String.valueOf(threads), "-quiet");
+            StringWriter log = new StringWriter();
+            boolean ok = tool.getTask(
+                            log, fm, null, TagXMLDoclet.class, options, fm.getJavaFileObjectsFromFiles(sources(src)))
+                    .call();
+            assertTrue(log.toString(), ok);
+        }
+        return Files.readAllBytes(new File(out, "taglib.xml").toPath());
+    }
+
+    private static List<File> sources(File dir) {
+        List<File> r = new ArrayList<>();
+        for (File f : BuildState.listFiles(dir)) {
+            if (f.getName().endsWith(".java")) {
+                r.add(f);
+            }
+        }
+        return r;
+    }
+
+    private String parsed(String text) throws Exception {
+        TagXMLDoclet.HtmlParser parser = new TagXMLDoclet.HtmlParser();
+        return write(new DocContent(text, (t, body) -> parser.doParse(t, body, doclet::validDocElementName)));
+    }
+
+    private static String write(DocContent content) throws Exception {
+        StringWriter out = new StringWriter();
+        TypedXmlWriter doc = TXW.create(new QName("doc"), TypedXmlWriter.class, new StreamSerializer(out));
+        content.writeBody(doc);
+        doc.commit();
+        return out.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TaglibFragmentsTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File src;
+    private TaglibFragments fragments;
+
+    @Before
+    public void setUp() throws Exception {
+        src = tmp.newFolder("src");
+        fragments = new TaglibFragments(new File(tmp.getRoot(), "target/" + TaglibFragments.DIR_NAME));
+    }
+
+    @Test
+    public void affectedPackages() throws Exception {
+        File base = new File(src, "org/example/base/BaseTag.java");
+        File foo = new File(src, "org/example/foo/FooTag.java");
+        fragments.writeDependencies("org.example.foo", List.of(foo, base));
+        fragments.writeDependencies("org.example.bar", List.of(new File(src, "org/example/bar/BarTag.java")));
+        fragments.writeDependencies("", List.of(new File(src, "RootTag.java")));
+
+        // the changed package itself, and those that inherit from it
+        assertEquals(
+                Set.of("org.example.base", "org.example.foo"),
+                fragments.affectedPackages(List.of(base.getAbsolutePath()), List.of(src)));
+        assertEquals(
+                Set.of("org.example.foo"), fragments.affectedPackages(List.of(foo.getAbsolutePath()), List.of(src)));
+        assertEquals(
+                Set.of(""),
+                fragments.affectedPackages(List.of(new File(src, "RootTag.java").getAbsolutePath()), List.of(src)));
+        assertEquals(Set.of(), fragments.affectedPackages(List.of("/elsewhere/Foo.java"), List.of(src)));
+    }
+
+    @Test
+    public void remove() throws Exception {
+        File foo = new File(src, "org/example/foo/FooTag.java");
+        fragments.writeDependencies("org.example.foo", List.of(foo));
+        Files.write(fragments.xml("org.example.foo").toPath(), "<library/>".getBytes(StandardCharsets.UTF_8));
+        fragments.remove("org.example.foo");
+        assertEquals(List.of(), fragments.libraries());
+        assertEquals(Set.of(), fragments.affectedPackages(List.of(foo.getAbsolutePath()), List.of()));
+    }
+
+    @Test
+    public void assembleAndSplit() throws Exception {
+        write("org.example.b", "<library name='org.example.b' prefix='b'><tag name='t'/></library>");
+        write("org.example.a", "<library name='org.example.a' prefix='a'/>");
+        assertEquals(2, fragments.libraries().size());
+        assertEquals("org.example.a.xml", fragments.libraries().get(0).getName());
+        assertEquals("b", TaglibFragments.prefixOf(fragments.xml("org.example.b")));
+
+        File taglibXml = new File(tmp.getRoot(), "taglib.xml");
+        fragments.assemble(taglibXml);
+        assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?><tags>"
+                        + "<library name='org.example.a' prefix='a'/>"
+                        + "<library name='org.example.b' prefix='b'><tag name='t'/></library>"
+                        + "</tags>",
+                new String(Files.readAllBytes(taglibXml.toPath()), StandardCharsets.UTF_8));
+        assertFalse(new File(taglibXml.getPath() + ".tmp").exists());
+
+        TaglibFragments split = TaglibFragments.split(taglibXml, tmp.newFolder("split"));
+        assertEquals(2, split.libraries().size());
+        assertEquals("a", TaglibFragments.prefixOf(split.xml("org.example.a")));
+        assertTrue(new String(Files.readAllBytes(split.xml("org.example.b").toPath()), StandardCharsets.UTF_8)
+                .contains("<tag name=\"t\""));
+    }
+
+    @Test
+    public void packageOf() {
+        assertEquals("org.example", TaglibFragments.packageOf(src, new File(src, "org/example/FooTag.java")));
+        assertEquals("", TaglibFragments.packageOf(src, new File(src, "FooTag.java")));
+        assertNull(TaglibFragments.packageOf(src, new File(tmp.getRoot(), "FooTag.java")));
+    }
+
+    @Test
+    public void withoutDeclaration() {
+        assertEquals("<library/>", TaglibFragments.withoutDeclaration("<?xml version=\"1.0\"?><library/>"));
+        assertEquals("<library/>", TaglibFragments.withoutDeclaration("<library/>"));
+    }
+
+    private void write(String pkg, String xml) throws Exception {
+        Files.write(
+                fragments.xml(pkg).toPath(),
+                ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8));
+    }
+}
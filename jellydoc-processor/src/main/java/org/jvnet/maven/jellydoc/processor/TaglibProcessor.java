@@ -0,0 +1,272 @@
+/*
+ * Copyright 2001-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc.processor;
+
+import com.sun.source.doctree.DocCommentTree;
+import com.sun.source.util.DocTrees;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.jvnet.maven.jellydoc.annotation.DocComments;
+import org.jvnet.maven.jellydoc.annotation.NoContent;
+import org.jvnet.maven.jellydoc.annotation.Required;
+import org.jvnet.maven.jellydoc.annotation.TagLibUri;
+
+/**
+ * Records the Jelly tags being compiled, along with their doc comments, in {@code META-INF/jellydoc}
+ * of the class output, so that the jellydoc goal can put the taglib together without running javadoc.
+ *
+ * <p>
+ * Every tag class, and every superclass of one compiled along with it, gets its own file,
+ * so that what was recorded by earlier compilations stays good when only some of the classes are recompiled.
+ * The same goes for every {@code package-info.java}.
+ * Only what's declared in the class itself is recorded. Inherited attributes are resolved by the jellydoc goal.
+ *
+ * <p>
+ * This processor looks at every class being compiled, so it is kept out of {@code jellydoc-annotations},
+ * which every tag library has in its classpath. Builds opt in by adding this artifact to the processor path,
+ * where it's registered as a service, and passing {@code -Ajellydoc.taglib=true} to javac.
+ */
+@SupportedAnnotationTypes("*")
+public class TaglibProcessor extends AbstractProcessor {
+    /**
+     * Where the files go, relative to the class output.
+     */
+    public static final String DIR = "META-INF/jellydoc/";
+
+    /**
+     * Suffix of the file recorded for a {@code package-info.java}, after the package name.
+     */
+    public static final String PACKAGE_INFO = "package-info";
+
+    /**
+     * Processor option that turns this processor on.
+     */
+    public static final String OPTION = "jellydoc.taglib";
+
+    private static final String TAG_CLASS = "org.apache.commons.jelly.Tag";
+
+    /**
+     * Null if the compiler isn't javac, in which case doc comments are recorded as they are.
+     */
+    private DocTrees docTrees;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        try {
+            docTrees = DocTrees.instance(processingEnv);
+        } catch (IllegalArgumentException e) {
+            docTrees = null;
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Set.of(OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!Boolean.parseBoolean(processingEnv.getOptions().get(OPTION))) {
+            return false;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        TypeElement tag = elements.getTypeElement(TAG_CLASS);
+        if (tag == null) {
+            // without Jelly in the classpath, nothing here can be a tag
+            return false;
+        }
+        TypeMirror tagType = types.erasure(tag.asType());
+
+        Set<? extends Element> roots = roundEnv.getRootElements();
+        Set<TypeElement> classes = new LinkedHashSet<>();
+        try {
+            for (Element e : roots) {
+                if (e instanceof PackageElement) {
+                    writePackage((PackageElement) e);
+                } else if (e instanceof TypeElement && types.isAssignable(types.erasure(e.asType()), tagType)) {
+                    // the superclasses compiled along with it, whose attributes are inherited
+                    for (TypeElement t = (TypeElement) e; t != null && roots.contains(t); t = superclassOf(t)) {
+                        classes.add(t);
+                    }
+                }
+            }
+            for (TypeElement c : classes) {
+                writeClass(c);
+            }
+        } catch (IOException | XMLStreamException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to record the Jelly tags: " + e);
+        }
+        return false;
+    }
+
+    private void writePackage(PackageElement pkg) throws IOException, XMLStreamException {
+        String name = pkg.getQualifiedName().toString();
+        try (OutputStream out = create((name.isEmpty() ? "" : name + ".") + PACKAGE_INFO, pkg)) {
+            XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("package");
+            xml.writeAttribute("name", name);
+            TagLibUri uri = pkg.getAnnotation(TagLibUri.class);
+            if (uri != null) {
+                xml.writeAttribute("uri", uri.value());
+            }
+            writeDoc(pkg, xml);
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        }
+    }
+
+    private void writeClass(TypeElement c) throws IOException, XMLStreamException {
+        try (OutputStream out = create(c.getQualifiedName().toString(), c)) {
+            XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("class");
+            xml.writeAttribute("name", c.getQualifiedName().toString());
+            TypeElement base = superclassOf(c);
+            if (base != null) {
+                xml.writeAttribute("superclass", processingEnv.getElementUtils().getBinaryName(base).toString());
+            }
+            if (c.getModifiers().contains(Modifier.ABSTRACT)) {
+                xml.writeAttribute("abstract", "true");
+            }
+            if (c.getAnnotation(NoContent.class) != null) {
+                xml.writeAttribute("noContent", "true");
+            }
+            writeDoc(c, xml);
+
+            for (ExecutableElement m : ElementFilter.methodsIn(c.getEnclosedElements())) {
+                writeAttribute(m, xml);
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        }
+    }
+
+    /**
+     * Same rules as {@code TagXMLDoclet.propertyXML}.
+     */
+    private void writeAttribute(ExecutableElement m, XMLStreamWriter xml) throws XMLStreamException {
+        if (!m.getModifiers().contains(Modifier.PUBLIC) || m.getModifiers().contains(Modifier.STATIC)) {
+            return;
+        }
+        String name = m.getSimpleName().toString();
+        List<? extends VariableElement> parameters = m.getParameters();
+        if (!name.startsWith("set") || parameters.size() != 1) {
+            return;
+        }
+        name = Introspector.decapitalize(name.substring(3));
+        if (name.equals("body") || name.equals("context") || name.equals("parent")) {
+            return;
+        }
+
+        xml.writeStartElement("attribute");
+        xml.writeAttribute("name", name);
+        xml.writeAttribute("type", parameters.get(0).asType().toString());
+        if (m.getAnnotation(Required.class) != null) {
+            xml.writeAttribute("required", "true");
+        }
+        writeDoc(m, xml);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Writes the doc comment, as {@link DocComments} renders it for the doclet. It's up to the jellydoc goal
+     * to make sense of its HTML.
+     */
+    private void writeDoc(Element e, XMLStreamWriter xml) throws XMLStreamException {
+        String body;
+        List<Map.Entry<String, String>> tags = List.of();
+        if (docTrees != null) {
+            DocCommentTree comment = docTrees.getDocCommentTree(e);
+            if (comment == null) {
+                return;
+            }
+            body = DocComments.body(comment);
+            tags = DocComments.blockTags(comment);
+        } else {
+            body = processingEnv.getElementUtils().getDocComment(e);
+            if (body == null) {
+                return;
+            }
+        }
+
+        xml.writeStartElement("doc");
+        xml.writeStartElement("body");
+        xml.writeCharacters(body);
+        xml.writeEndElement();
+        for (Map.Entry<String, String> tag : tags) {
+            xml.writeStartElement("tag");
+            xml.writeAttribute("name", tag.getKey());
+            xml.writeCharacters(tag.getValue());
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    private OutputStream create(String name, Element origin) throws IOException {
+        FileObject f = processingEnv
+                .getFiler()
+                .createResource(StandardLocation.CLASS_OUTPUT, "", DIR + name + ".xml", origin);
+        return f.openOutputStream();
+    }
+
+    private static TypeElement superclassOf(TypeElement c) {
+        TypeMirror base = c.getSuperclass();
+        if (base instanceof DeclaredType) {
+            Element e = ((DeclaredType) base).asElement();
+            if (e instanceof TypeElement) {
+                return (TypeElement) e;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package org.jvnet.maven.jellydoc.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class TaglibProcessorTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File jelly;
+
+    private static final Map<String, String> SOURCES = Map.of(
+            "org/example/package-info.java",
+            "/** Example tags. */ @org.jvnet.maven.jellydoc.annotation.TagLibUri(\"jelly:example\")"
+                    + " package org.example;",
+            "org/example/BaseTag.java",
+            "package org.example; public abstract class BaseTag extends org.apache.commons.jelly.TagSupport {"
+                    + " /** Name of the thing. */ public void setName(String name) {} }",
+            "org/example/FooTag.java",
+            "package org.example; import org.jvnet.maven.jellydoc.annotation.*;"
+                    + " /** Does foo.\n * @since 1.2\n */ @NoContent public class FooTag extends BaseTag {"
+                    + " @Required public void setCount(int count) {}"
+                    + " public void setBody(Object body) {} public static void setStatic(int x) {} }",
+            "org/example/Helper.java",
+            "package org.example; public class Helper { public void setName(String name) {} }");
+
+    @Before
+    public void compileJelly() throws Exception {
+        jelly = compile(
+                tmp.newFolder("jelly"),
+                Map.of(
+                        "org/apache/commons/jelly/Tag.java",
+                        "package org.apache.commons.jelly; public interface Tag {}",
+                        "org/apache/commons/jelly/TagSupport.java",
+                        "package org.apache.commons.jelly; public abstract class TagSupport implements Tag {}"),
+                List.of(),
+                false);
+    }
+
+    @Test
+    public void records() throws Exception {
+        File classes = compile(tmp.newFolder("project"), SOURCES, List.of("-Ajellydoc.taglib=true"), true);
+        File dir = new File(classes, TaglibProcessor.DIR);
+
+        Element pkg = read(new File(dir, "org.example.package-info.xml"));
+        assertEquals("package", pkg.getTagName());
+        assertEquals("org.example", pkg.getAttribute("name"));
+        assertEquals("jelly:example", pkg.getAttribute("uri"));
+        assertEquals("Example tags.", text(pkg, "body").trim());
+
+        Element foo = read(new File(dir, "org.example.FooTag.xml"));
+        assertEquals("org.example.BaseTag", foo.getAttribute("superclass"));
+        assertEquals("true", foo.getAttribute("noContent"));
+        assertFalse(foo.hasAttribute("abstract"));
+        assertEquals("Does foo.", text(foo, "body").trim());
+        Element since = (Element) foo.getElementsByTagName("tag").item(0);
+        assertEquals("since", since.getAttribute("name"));
+        assertEquals("1.2", since.getTextContent().trim());
+        // only what's declared in the class, and only the attributes
+        NodeList attributes = foo.getElementsByTagName("attribute");
+        assertEquals(1, attributes.getLength());
+        Element count = (Element) attributes.item(0);
+        assertEquals("count", count.getAttribute("name"));
+        assertEquals("int", count.getAttribute("type"));
+        assertEquals("true", count.getAttribute("required"));
+
+        Element base = read(new File(dir, "org.example.BaseTag.xml"));
+        assertEquals("true", base.getAttribute("abstract"));
+        assertEquals("org.apache.commons.jelly.TagSupport", base.getAttribute("superclass"));
+        Element name = (Element) base.getElementsByTagName("attribute").item(0);
+        assertEquals("name", name.getAttribute("name"));
+        assertFalse(name.hasAttribute("required"));
+        assertEquals("Name of the thing.", text(name, "body").trim());
+
+        assertFalse(new File(dir, "org.example.Helper.xml").exists());
+    }
+
+    @Test
+    public void offUnlessAsked() throws Exception {
+        File classes = compile(tmp.newFolder("project"), SOURCES, List.of(), true);
+        assertTrue(new File(classes, "org/example/FooTag.class").exists());
+        assertFalse(new File(classes, "META-INF").exists());
+    }
+
+    /**
+     * Compiles the sources against the Jelly stubs, with just this processor, if asked for.
+     */
+    private File compile(File dir, Map<String, String> sources, List<String> options, boolean process)
+            throws IOException {
+        File src = new File(dir, "src");
+        File classes = new File(dir, "classes");
+        classes.mkdirs();
+        List<File> files = new ArrayList<>();
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            File f = new File(src, e.getKey());
+            f.getParentFile().mkdirs();
+            Files.writeString(f.toPath(), e.getValue(), StandardCharsets.UTF_8);
+            files.add(f);
+        }
+        List<String> args = new ArrayList<>(options);
+        args.addAll(List.of("-d", classes.getPath()));
+        if (jelly != null) {
+            String classpath = jelly.getPath() + File.pathSeparator + System.getProperty("java.class.path");
+            args.addAll(List.of("-classpath", classpath));
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fm = javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task =
+                    javac.getTask(null, fm, null, args, null, fm.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(process ? List.of(new TaglibProcessor()) : List.of());
+            assertTrue("compilation failed", task.call());
+        }
+        return classes;
+    }
+
+    private static Element read(File f) throws Exception {
+        assertTrue(f + " is missing", f.exists());
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f).getDocumentElement();
+    }
+
+    private static String text(Element e, String name) {
+        return e.getElementsByTagName(name).item(0).getTextContent();
+    }
+}
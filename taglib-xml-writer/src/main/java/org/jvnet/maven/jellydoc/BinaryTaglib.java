@@ -0,0 +1,705 @@
+/*
+ * Copyright 2009, Kohsuke Kawaguchi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jvnet.maven.jellydoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Binary form of {@code taglib.xml}, for tools that need to look up tags and attributes
+ * without parsing the XML.
+ *
+ * <p>
+ * The file is meant to be memory-mapped, and nothing is decoded until asked for.
+ * All the integers are big-endian {@code int}s. The layout is:
+ * <ol>
+ * <li>The header: {@link #MAGIC}, {@link #VERSION}, the number of strings, libraries, tags and attributes,
+ *     followed by the file offsets of the string index, the string data, and the library, tag and attribute records.
+ * <li>The string table: {@code count+1} offsets into the string data, followed by the UTF-8 string data.
+ *     String {@code i} spans from offset {@code i} to offset {@code i+1}.
+ * <li>Library records: name, prefix, uri, doc, index of the first tag, number of tags. Sorted by name.
+ * <li>Tag records: name, class name, doc, body doc, flags, index of the first attribute, number of attributes.
+ *     The tags of a library are contiguous and sorted by name.
+ * <li>Attribute records: name, type, doc, flags. The attributes of a tag are contiguous and sorted by name.
+ * </ol>
+ * Names and docs are indices into the string table, and {@link #NONE} for absent ones.
+ * Docs are kept as the XML markup inside the {@code <doc>} element.
+ * Since the records are fixed-size and sorted, lookups by name are binary searches right on the mapped file.
+ */
+public final class BinaryTaglib {
+    public static final int MAGIC = 0x4A544C42; // "JTLB"
+    public static final int VERSION = 1;
+
+    /**
+     * String index for absent values.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Tag flag for {@code no-content="true"}.
+     */
+    public static final int NO_CONTENT = 1;
+
+    /**
+     * Attribute flag for {@code use="required"}.
+     */
+    public static final int REQUIRED = 1;
+
+    /**
+     * Flag for tags and attributes with the {@code @deprecated} javadoc tag.
+     */
+    public static final int DEPRECATED = 2;
+
+    /**
+     * Element the doclet writes the {@code @deprecated} javadoc tag as, next to {@code <doc>}.
+     */
+    private static final String DEPRECATED_TAG = "deprecatedtag";
+
+    private static final int HEADER_SIZE = 11 * 4;
+    private static final int LIBRARY_SIZE = 6 * 4;
+    private static final int TAG_SIZE = 7 * 4;
+    private static final int ATTRIBUTE_SIZE = 4 * 4;
+
+    /**
+     * Files up to this size are read by {@link #open(File)} rather than mapped.
+     */
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+
+    private final ByteBuffer buf;
+    private final int stringCount;
+    private final int libraryCount;
+    private final int stringIndexPos;
+    private final int stringDataPos;
+    private final int libraryPos;
+    private final int tagPos;
+    private final int attributePos;
+
+    private BinaryTaglib(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary taglib");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Unsupported binary taglib version " + buf.getInt(4));
+        }
+        stringCount = buf.getInt(8);
+        libraryCount = buf.getInt(12);
+        stringIndexPos = buf.getInt(24);
+        stringDataPos = buf.getInt(28);
+        libraryPos = buf.getInt(32);
+        tagPos = buf.getInt(36);
+        attributePos = buf.getInt(40);
+    }
+
+    /**
+     * Maps the given file into memory, or reads it if it's small, which most are.
+     *
+     * <p>
+     * A mapping lasts until the returned object is garbage collected. On Windows, a mapped file can't be
+     * replaced or deleted meanwhile, so {@link #write(List, File)} fails with an
+     * {@link java.nio.file.AccessDeniedException} if another process still has a large one open.
+     */
+    public static BinaryTaglib open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() <= MAP_THRESHOLD) {
+                byte[] data = new byte[(int) raf.length()];
+                raf.readFully(data);
+                return read(data);
+            }
+            // the mapping stays valid after the channel is closed
+            return new BinaryTaglib(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        }
+    }
+
+    /**
+     * Reads the binary taglib from memory, for example from a resource.
+     */
+    public static BinaryTaglib read(byte[] data) throws IOException {
+        return new BinaryTaglib(ByteBuffer.wrap(data));
+    }
+
+    public int getLibraryCount() {
+        return libraryCount;
+    }
+
+    public LibraryEntry getLibrary(int index) {
+        if (index < 0 || index >= libraryCount) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new LibraryEntry(libraryPos + index * LIBRARY_SIZE);
+    }
+
+    public List<LibraryEntry> getLibraries() {
+        List<LibraryEntry> r = new ArrayList<>(libraryCount);
+        for (int i = 0; i < libraryCount; i++) {
+            r.add(getLibrary(i));
+        }
+        return r;
+    }
+
+    /**
+     * Looks up a library by its name, which is the Java package name.
+     *
+     * @return null if there's no such library.
+     */
+    public LibraryEntry findLibrary(String name) {
+        int i = search(libraryPos, LIBRARY_SIZE, 0, libraryCount, name);
+        return i < 0 ? null : getLibrary(i);
+    }
+
+    /**
+     * Looks up a library by its namespace URI, which takes a linear scan.
+     *
+     * @return null if there's no such library.
+     */
+    public LibraryEntry findLibraryByUri(String uri) {
+        for (int i = 0; i < libraryCount; i++) {
+            LibraryEntry l = getLibrary(i);
+            if (uri.equals(l.getUri())) {
+                return l;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Binary search over records whose first field is the name.
+     *
+     * @return index relative to {@code from}, or -1 if not found.
+     */
+    private int search(int base, int recordSize, int from, int count, String name) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            // absent names sort as empty ones, as they were written
+            String s = string(buf.getInt(base + (from + mid) * recordSize));
+            int c = (s == null ? "" : s).compareTo(name);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int index) {
+        if (index == NONE) {
+            return null;
+        }
+        if (index < 0 || index >= stringCount) {
+            throw new IllegalStateException("Corrupt binary taglib: no string " + index);
+        }
+        int start = buf.getInt(stringIndexPos + index * 4);
+        int end = buf.getInt(stringIndexPos + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        // the buffer is shared, so don't touch its position
+        ByteBuffer b = buf.duplicate();
+        b.position(stringDataPos + start);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * View of a {@code <library>} record.
+     */
+    public final class LibraryEntry {
+        private final int pos;
+
+        private LibraryEntry(int pos) {
+            this.pos = pos;
+        }
+
+        public String getName() {
+            return string(buf.getInt(pos));
+        }
+
+        public String getPrefix() {
+            return string(buf.getInt(pos + 4));
+        }
+
+        public String getUri() {
+            return string(buf.getInt(pos + 8));
+        }
+
+        public String getDoc() {
+            return string(buf.getInt(pos + 12));
+        }
+
+        public int getTagCount() {
+            return buf.getInt(pos + 20);
+        }
+
+        public TagEntry getTag(int index) {
+            if (index < 0 || index >= getTagCount()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return new TagEntry(tagPos + (buf.getInt(pos + 16) + index) * TAG_SIZE);
+        }
+
+        public List<TagEntry> getTags() {
+            List<TagEntry> r = new ArrayList<>();
+            for (int i = 0; i < getTagCount(); i++) {
+                r.add(getTag(i));
+            }
+            return r;
+        }
+
+        /**
+         * @return null if there's no such tag.
+         */
+        public TagEntry findTag(String name) {
+            int i = search(tagPos, TAG_SIZE, buf.getInt(pos + 16), getTagCount(), name);
+            return i < 0 ? null : getTag(i);
+        }
+    }
+
+    /**
+     * View of a {@code <tag>} record.
+     */
+    public final class TagEntry {
+        private final int pos;
+
+        private TagEntry(int pos) {
+            this.pos = pos;
+        }
+
+        public String getName() {
+            return string(buf.getInt(pos));
+        }
+
+        public String getClassName() {
+            return string(buf.getInt(pos + 4));
+        }
+
+        public String getDoc() {
+            return string(buf.getInt(pos + 8));
+        }
+
+        /**
+         * @return null if the tag doesn't document its body.
+         */
+        public String getBodyDoc() {
+            return string(buf.getInt(pos + 12));
+        }
+
+        public boolean isNoContent() {
+            return (buf.getInt(pos + 16) & NO_CONTENT) != 0;
+        }
+
+        public boolean isDeprecated() {
+            return (buf.getInt(pos + 16) & DEPRECATED) != 0;
+        }
+
+        public int getAttributeCount() {
+            return buf.getInt(pos + 24);
+        }
+
+        public AttributeEntry getAttribute(int index) {
+            if (index < 0 || index >= getAttributeCount()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return new AttributeEntry(attributePos + (buf.getInt(pos + 20) + index) * ATTRIBUTE_SIZE);
+        }
+
+        public List<AttributeEntry> getAttributes() {
+            List<AttributeEntry> r = new ArrayList<>();
+            for (int i = 0; i < getAttributeCount(); i++) {
+                r.add(getAttribute(i));
+            }
+            return r;
+        }
+
+        /**
+         * @return null if there's no such attribute.
+         */
+        public AttributeEntry findAttribute(String name) {
+            int i = search(attributePos, ATTRIBUTE_SIZE, buf.getInt(pos + 20), getAttributeCount(), name);
+            return i < 0 ? null : getAttribute(i);
+        }
+    }
+
+    /**
+     * View of an {@code <attribute>} record.
+     */
+    public final class AttributeEntry {
+        private final int pos;
+
+        private AttributeEntry(int pos) {
+            this.pos = pos;
+        }
+
+        public String getName() {
+            return string(buf.getInt(pos));
+        }
+
+        public String getType() {
+            return string(buf.getInt(pos + 4));
+        }
+
+        public String getDoc() {
+            return string(buf.getInt(pos + 8));
+        }
+
+        public boolean isRequired() {
+            return (buf.getInt(pos + 12) & REQUIRED) != 0;
+        }
+
+        public boolean isDeprecated() {
+            return (buf.getInt(pos + 12) & DEPRECATED) != 0;
+        }
+    }
+
+    /**
+     * Converts XML files into one binary taglib.
+     *
+     * @param xmlFiles
+     *      Each is either a whole {@code taglib.xml} or a single {@code <library>} element.
+     */
+    public static void write(List<File> xmlFiles, File out) throws IOException {
+        List<LibraryModel> libraries = new ArrayList<>();
+        XMLInputFactory xif = XMLInputFactory.newFactory();
+        for (File f : xmlFiles) {
+            try (InputStream in = new FileInputStream(f)) {
+                XMLStreamReader r = xif.createXMLStreamReader(in);
+                try {
+                    while (r.hasNext()) {
+                        if (r.next() == XMLStreamConstants.START_ELEMENT && r.getLocalName().equals("library")) {
+                            libraries.add(readLibrary(r));
+                        }
+                    }
+                } finally {
+                    r.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to parse " + f, e);
+            }
+        }
+        writeModel(libraries, out);
+    }
+
+    private static final Comparator<NamedModel> BY_NAME =
+            Comparator.comparing(m -> m.name == null ? "" : m.name);
+
+    private static void writeModel(List<LibraryModel> libraries, File out) throws IOException {
+        libraries.sort(BY_NAME);
+
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int tagCount = 0;
+        int attributeCount = 0;
+        for (LibraryModel l : libraries) {
+            l.tags.sort(BY_NAME);
+            tagCount += l.tags.size();
+            for (TagModel t : l.tags) {
+                t.attributes.sort(BY_NAME);
+                attributeCount += t.attributes.size();
+            }
+        }
+
+        ByteBuffer libraryRecords = ByteBuffer.allocate(libraries.size() * LIBRARY_SIZE);
+        ByteBuffer tagRecords = ByteBuffer.allocate(tagCount * TAG_SIZE);
+        ByteBuffer attributeRecords = ByteBuffer.allocate(attributeCount * ATTRIBUTE_SIZE);
+        int tagIndex = 0;
+        int attributeIndex = 0;
+        for (LibraryModel l : libraries) {
+            libraryRecords.putInt(intern(l.name, stringIndex, strings));
+            libraryRecords.putInt(intern(l.prefix, stringIndex, strings));
+            libraryRecords.putInt(intern(l.uri, stringIndex, strings));
+            libraryRecords.putInt(intern(l.doc, stringIndex, strings));
+            libraryRecords.putInt(tagIndex);
+            libraryRecords.putInt(l.tags.size());
+            for (TagModel t : l.tags) {
+                tagRecords.putInt(intern(t.name, stringIndex, strings));
+                tagRecords.putInt(intern(t.className, stringIndex, strings));
+                tagRecords.putInt(intern(t.doc, stringIndex, strings));
+                tagRecords.putInt(intern(t.bodyDoc, stringIndex, strings));
+                tagRecords.putInt(t.flags);
+                tagRecords.putInt(attributeIndex);
+                tagRecords.putInt(t.attributes.size());
+                for (AttributeModel a : t.attributes) {
+                    attributeRecords.putInt(intern(a.name, stringIndex, strings));
+                    attributeRecords.putInt(intern(a.type, stringIndex, strings));
+                    attributeRecords.putInt(intern(a.doc, stringIndex, strings));
+                    attributeRecords.putInt(a.flags);
+                }
+                attributeIndex += t.attributes.size();
+            }
+            tagIndex += l.tags.size();
+        }
+
+        int stringDataSize = 0;
+        for (byte[] s : strings) {
+            stringDataSize += s.length;
+        }
+        int stringIndexPos = HEADER_SIZE;
+        int stringDataPos = stringIndexPos + (strings.size() + 1) * 4;
+        int libraryPos = stringDataPos + stringDataSize;
+        int tagPos = libraryPos + libraryRecords.capacity();
+        int attributePos = tagPos + tagRecords.capacity();
+
+        ByteBuffer file = ByteBuffer.allocate(attributePos + attributeRecords.capacity());
+        file.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(strings.size())
+                .putInt(libraries.size())
+                .putInt(tagCount)
+                .putInt(attributeCount)
+                .putInt(stringIndexPos)
+                .putInt(stringDataPos)
+                .putInt(libraryPos)
+                .putInt(tagPos)
+                .putInt(attributePos);
+        int offset = 0;
+        for (byte[] s : strings) {
+            file.putInt(offset);
+            offset += s.length;
+        }
+        file.putInt(offset);
+        for (byte[] s : strings) {
+            file.put(s);
+        }
+        file.put(libraryRecords.array());
+        file.put(tagRecords.array());
+        file.put(attributeRecords.array());
+
+        // readers may have the old file mapped, so replace it instead of overwriting it,
+        // which Windows refuses while they do; see open(File)
+        File tmp = new File(out.getPath() + ".tmp");
+        Files.write(tmp.toPath(), file.array());
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int intern(String s, Map<String, Integer> index, List<byte[]> strings) {
+        if (s == null) {
+            return NONE;
+        }
+        return index.computeIfAbsent(s, k -> {
+            strings.add(k.getBytes(StandardCharsets.UTF_8));
+            return strings.size() - 1;
+        });
+    }
+
+    private abstract static class NamedModel {
+        String name;
+    }
+
+    private static final class LibraryModel extends NamedModel {
+        String prefix;
+        String uri;
+        String doc;
+        final List<TagModel> tags = new ArrayList<>();
+    }
+
+    private static final class TagModel extends NamedModel {
+        String className;
+        String doc;
+        String bodyDoc;
+        int flags;
+        final List<AttributeModel> attributes = new ArrayList<>();
+    }
+
+    private static final class AttributeModel extends NamedModel {
+        String type;
+        String doc;
+        int flags;
+    }
+
+    private static LibraryModel readLibrary(XMLStreamReader r) throws XMLStreamException {
+        LibraryModel l = new LibraryModel();
+        l.name = r.getAttributeValue(null, "name");
+        l.prefix = r.getAttributeValue(null, "prefix");
+        l.uri = r.getAttributeValue(null, "uri");
+        while (nextChild(r)) {
+            switch (r.getLocalName()) {
+                case "doc":
+                    l.doc = readMarkup(r);
+                    break;
+                case "tag":
+                    l.tags.add(readTag(r));
+                    break;
+                default:
+                    readMarkup(r);
+            }
+        }
+        return l;
+    }
+
+    private static TagModel readTag(XMLStreamReader r) throws XMLStreamException {
+        TagModel t = new TagModel();
+        t.name = r.getAttributeValue(null, "name");
+        t.className = r.getAttributeValue(null, "className");
+        if ("true".equals(r.getAttributeValue(null, "no-content"))) {
+            t.flags |= NO_CONTENT;
+        }
+        while (nextChild(r)) {
+            switch (r.getLocalName()) {
+                case "doc":
+                    t.doc = readMarkup(r);
+                    if (isDeprecated(t.doc)) {
+                        t.flags |= DEPRECATED;
+                    }
+                    break;
+                case "attribute":
+                    t.attributes.add(readAttribute(r));
+                    break;
+                case "body":
+                    while (nextChild(r)) {
+                        String doc = readMarkup(r);
+                        if (r.getLocalName().equals("doc")) {
+                            t.bodyDoc = doc;
+                        }
+                    }
+                    break;
+                case DEPRECATED_TAG:
+                    t.flags |= DEPRECATED;
+                    readMarkup(r);
+                    break;
+                default:
+                    readMarkup(r);
+            }
+        }
+        return t;
+    }
+
+    private static AttributeModel readAttribute(XMLStreamReader r) throws XMLStreamException {
+        AttributeModel a = new AttributeModel();
+        a.name = r.getAttributeValue(null, "name");
+        a.type = r.getAttributeValue(null, "type");
+        if ("required".equals(r.getAttributeValue(null, "use"))) {
+            a.flags |= REQUIRED;
+        }
+        while (nextChild(r)) {
+            switch (r.getLocalName()) {
+                case "doc":
+                    a.doc = readMarkup(r);
+                    if (isDeprecated(a.doc)) {
+                        a.flags |= DEPRECATED;
+                    }
+                    break;
+                case DEPRECATED_TAG:
+                    a.flags |= DEPRECATED;
+                    readMarkup(r);
+                    break;
+                default:
+                    readMarkup(r);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Checks if the {@code @deprecated} tag ended up inside the doc markup rather than next to it.
+     * Text is escaped by {@link #readMarkup(XMLStreamReader)}, so only elements start with {@code <}.
+     */
+    private static boolean isDeprecated(String markup) {
+        return markup.contains("<" + DEPRECATED_TAG + ">") || markup.contains("<" + DEPRECATED_TAG + " ");
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     *
+     * @return false if the end of the current element is reached instead.
+     */
+    private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+        while (true) {
+            int e = r.next();
+            if (e == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (e == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the contents of the current element as XML markup, leaving the reader at its end tag.
+     */
+    private static String readMarkup(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        for (int depth = 1; ; ) {
+            switch (r.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    sb.append('<').append(r.getLocalName());
+                    for (int i = 0; i < r.getAttributeCount(); i++) {
+                        sb.append(' ').append(r.getAttributeLocalName(i)).append("=\"");
+                        escape(r.getAttributeValue(i), sb).append('"');
+                    }
+                    sb.append('>');
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (--depth == 0) {
+                        return sb.toString();
+                    }
+                    sb.append("</").append(r.getLocalName()).append('>');
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    escape(r.getText(), sb);
+                    break;
+                default:
+                    // comments and processing instructions don't make it into the model
+            }
+        }
+    }
+
+    private static StringBuilder escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,135 @@
+package org.jvnet.maven.jellydoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryTaglibTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        // shaped like what TagXMLDoclet writes
+        File xml = xml("taglib.xml", "<?xml version='1.0' encoding='UTF-8'?><tags>"
+                + "<library name='org.example.b' prefix='b' uri='urn:b'><doc><head/>Library <b>b</b></doc>"
+                + "<tag name='zeta' className='org.example.b.ZetaTag' no-content='true'>"
+                + "<doc><head/>Zeta &amp; co</doc><sincetag>1.2</sincetag>"
+                + "<deprecatedtag>use alpha</deprecatedtag></tag>"
+                + "<tag name='alpha' className='org.example.b.AlphaTag'><body><doc>The body</doc></body>"
+                + "<attribute name='y' type='int'><doc><head/>Y</doc></attribute>"
+                + "<attribute name='x' type='java.lang.String' use='required'/>"
+                // as when the block tags end up nested in the doc
+                + "<attribute name='w' type='int'><doc><head/>W<deprecatedtag>gone</deprecatedtag></doc></attribute>"
+                + "</tag></library>"
+                + "<library name='org.example.a'/>"
+                + "</tags>");
+        BinaryTaglib taglib = write(xml);
+
+        assertEquals(2, taglib.getLibraryCount());
+        assertEquals("org.example.a", taglib.getLibrary(0).getName());
+        assertNull(taglib.getLibrary(0).getPrefix());
+        assertEquals(0, taglib.getLibrary(0).getTagCount());
+
+        BinaryTaglib.LibraryEntry b = taglib.findLibrary("org.example.b");
+        assertEquals("b", b.getPrefix());
+        assertEquals("urn:b", b.getUri());
+        assertEquals("<head></head>Library <b>b</b>", b.getDoc());
+        assertEquals("org.example.b", taglib.findLibraryByUri("urn:b").getName());
+        assertEquals(2, b.getTagCount());
+        assertEquals("alpha", b.getTag(0).getName());
+        assertNull(taglib.findLibrary("org.other"));
+
+        BinaryTaglib.TagEntry zeta = b.findTag("zeta");
+        assertEquals("org.example.b.ZetaTag", zeta.getClassName());
+        assertEquals("<head></head>Zeta &amp; co", zeta.getDoc());
+        assertNull(zeta.getBodyDoc());
+        assertTrue(zeta.isNoContent());
+        assertTrue(zeta.isDeprecated());
+        assertNull(b.findTag("omega"));
+
+        BinaryTaglib.TagEntry alpha = b.findTag("alpha");
+        assertEquals("The body", alpha.getBodyDoc());
+        assertFalse(alpha.isNoContent());
+        assertFalse(alpha.isDeprecated());
+        assertEquals("w", alpha.getAttribute(0).getName());
+        assertTrue(alpha.findAttribute("w").isDeprecated());
+        assertTrue(alpha.findAttribute("x").isRequired());
+        assertNull(alpha.findAttribute("x").getDoc());
+        assertEquals("int", alpha.findAttribute("y").getType());
+        assertEquals("<head></head>Y", alpha.findAttribute("y").getDoc());
+        assertFalse(alpha.findAttribute("y").isRequired());
+        assertFalse(alpha.findAttribute("y").isDeprecated());
+        assertFalse(alpha.findAttribute("x").isDeprecated());
+    }
+
+    @Test
+    public void missingNames() throws Exception {
+        BinaryTaglib taglib = write(xml("taglib.xml", "<tags><library name='org.example'>"
+                + "<tag className='org.example.NamelessTag'/><tag name='b'/><tag name='a'/>"
+                + "</library></tags>"));
+        BinaryTaglib.LibraryEntry l = taglib.findLibrary("org.example");
+        assertNull(l.getTag(0).getName());
+        assertEquals("a", l.findTag("a").getName());
+        assertEquals("b", l.findTag("b").getName());
+        assertNull(l.findTag("c"));
+        assertEquals("org.example.NamelessTag", l.findTag("").getClassName());
+        assertNull(taglib.findLibrary("org.other"));
+        assertNull(taglib.findLibraryByUri("urn:none"));
+    }
+
+    @Test
+    public void fragments() throws Exception {
+        File out = tmp.newFile("taglib.bin");
+        BinaryTaglib.write(
+                Arrays.asList(
+                        xml("b.xml", "<library name='b'><tag name='t'/></library>"),
+                        xml("a.xml", "<library name='a'><tag name='t'/></library>")),
+                out);
+        BinaryTaglib taglib = BinaryTaglib.open(out);
+        assertEquals("a", taglib.getLibrary(0).getName());
+        assertEquals("b", taglib.getLibrary(1).getName());
+        assertEquals("t", taglib.findLibrary("b").findTag("t").getName());
+        assertEquals(2, BinaryTaglib.read(Files.readAllBytes(out.toPath())).getLibraryCount());
+    }
+
+    @Test
+    public void replace() throws Exception {
+        File out = tmp.newFile("taglib.bin");
+        BinaryTaglib.write(Collections.singletonList(xml("a.xml", "<library name='a'/>")), out);
+        BinaryTaglib before = BinaryTaglib.open(out);
+        BinaryTaglib.write(Collections.singletonList(xml("b.xml", "<library name='b'/>")), out);
+        assertEquals("a", before.getLibrary(0).getName());
+        assertEquals("b", BinaryTaglib.open(out).getLibrary(0).getName());
+        assertFalse(new File(out.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void notBinary() {
+        assertThrows(IOException.class, () -> BinaryTaglib.read("<tags/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private File xml(String name, String content) throws IOException {
+        File f = tmp.newFile(name);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private BinaryTaglib write(File xml) throws IOException {
+        File out = new File(tmp.getRoot(), "taglib.bin");
+        BinaryTaglib.write(Collections.singletonList(xml), out);
+        return BinaryTaglib.open(out);
+    }
+}